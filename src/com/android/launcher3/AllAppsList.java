@@ -226,35 +226,21 @@ class AllAppsList {
         return null;
     }
 
-    public AppInfo unreadNumbersChanged(Context context, ComponentName component,
-            int unreadNum) {
+    /**
+     * Updates the unread count of the app for "component". The count is drawn over the icon
+     * when it is bound, so the icon itself does not change.
+     * @return the updated app, or null if the count did not change.
+     */
+    public AppInfo unreadNumbersChanged(ComponentName component, int unreadNum) {
 
         if (component == null) { return null; }
 
-        LauncherAppsCompat launcherApps = LauncherAppsCompat.getInstance(context);
-        UserHandleCompat myUserHandle = UserHandleCompat.myUserHandle();
-        List<LauncherActivityInfoCompat> matches =
-                launcherApps.getActivityList(component.getPackageName(), myUserHandle);
-
-        for (LauncherActivityInfoCompat launcherActivityInfoCompat : matches) {
-            if (component.getPackageName().equals(
-                    launcherActivityInfoCompat.getComponentName().getPackageName())) {
-
-                AppInfo appInfo = findApplicationInfoLocked(
-                        component.getPackageName(), myUserHandle,
-                        component.getClassName());
-
-                if (appInfo == null) {
-                    return null;
-                } else {
-                    appInfo.unreadNum = unreadNum;
-                    mIconCache.remove(appInfo.componentName, myUserHandle);
-                    mIconCache.getTitleAndIcon(appInfo, launcherActivityInfoCompat, null);
-                    return appInfo;
-                }
-            }
+        AppInfo appInfo = findApplicationInfoLocked(component.getPackageName(),
+                UserHandleCompat.myUserHandle(), component.getClassName());
+        if (appInfo == null || appInfo.unreadNum == unreadNum) {
+            return null;
         }
-
-        return null;
+        appInfo.unreadNum = unreadNum;
+        return appInfo;
     }
 }
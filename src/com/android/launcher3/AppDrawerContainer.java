@@ -10,10 +10,12 @@ import android.widget.LinearLayout;
 public class AppDrawerContainer extends InsettableFrameLayout {
 
     private int mScrubberHeight;
+    private int mSearchHeight;
 
     public AppDrawerContainer(Context context, AttributeSet attrs) {
         super(context, attrs);
         mScrubberHeight = getResources().getDimensionPixelSize(R.dimen.scrubber_height);
+        mSearchHeight = getResources().getDimensionPixelSize(R.dimen.app_drawer_search_height);
     }
 
     @Override
@@ -23,10 +25,16 @@ public class AppDrawerContainer extends InsettableFrameLayout {
         FrameLayout.LayoutParams lp =
                 (FrameLayout.LayoutParams) view.getLayoutParams();
         int paddingBottom =  mScrubberHeight + insets.bottom - mInsets.bottom;
-        int paddingTop = insets.top - mInsets.top;
+        int paddingTop = mSearchHeight + insets.top - mInsets.top;
         view.setLayoutParams(lp);
         view.setPadding(view.getPaddingLeft(), paddingTop, view.getPaddingRight(), paddingBottom);
 
+        // Search field
+        view = findViewById(R.id.app_drawer_search);
+        lp = (FrameLayout.LayoutParams) view.getLayoutParams();
+        lp.topMargin = insets.top - mInsets.top;
+        view.setLayoutParams(lp);
+
         // Scrubber
         view = findViewById(R.id.app_drawer_scrubber_container);
         LinearLayout.LayoutParams llp = (LinearLayout.LayoutParams) view.getLayoutParams();
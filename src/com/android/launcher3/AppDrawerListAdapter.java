@@ -42,10 +42,13 @@ import com.android.launcher3.settings.SettingsProvider;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * AppDrawerListAdapter - list adapter for the vertical app drawer
@@ -89,6 +92,10 @@ public class AppDrawerListAdapter extends RecyclerView.Adapter<AppDrawerListAdap
 
     private ItemAnimatorSet mItemAnimatorSet;
 
+    // All the apps of the drawer, and the query the shown apps are filtered with
+    private final AppSearchIndex mSearchIndex = new AppSearchIndex();
+    private String mSearchQuery = "";
+
     public enum DrawerType {
         Drawer(0),
         Pager(1);
@@ -431,7 +438,9 @@ public class AppDrawerListAdapter extends RecyclerView.Adapter<AppDrawerListAdap
     }
 
     /**
-     * Create and populate mHeaderList (buckets for app sorting)
+     * Create and populate mHeaderList (buckets for app sorting). The bucket of every app is
+     * computed once, the apps are grouped by bucket label in a single pass, and the groups are
+     * then sorted and split into rows.
      * @param info
      */
     public void populateByCharacter(ArrayList<AppInfo> info) {
@@ -440,55 +449,51 @@ public class AppDrawerListAdapter extends RecyclerView.Adapter<AppDrawerListAdap
             return;
         }
 
-        // Create a clone of AppInfo ArrayList to preserve data
-        ArrayList<AppInfo> tempInfo = (ArrayList<AppInfo>) info.clone();
-
-        ArrayList<AppInfo> appInfos = new ArrayList<AppInfo>();
-
-        // get next app
-        AppInfo app = tempInfo.get(0);
-
-        // get starting character
+        // Group the apps by the label of their bucket, in the order the labels first appear
         LocaleUtils localeUtils = LocaleUtils.getInstance();
-        int bucketIndex = localeUtils.getBucketIndex(app.title.toString());
-            String startString
-                = localeUtils.getBucketLabel(bucketIndex);
-        if (TextUtils.isEmpty(startString)) {
-            startString = NUMERIC_OR_SPECIAL_HEADER;
-            bucketIndex = localeUtils.getBucketIndex(startString);
-        }
-
-        // now iterate through
-        for (AppInfo info1 : tempInfo) {
-            int newBucketIndex = localeUtils.getBucketIndex(info1.title.toString());
-
-            String newChar
-                    = localeUtils.getBucketLabel(newBucketIndex);
-            if (TextUtils.isEmpty(newChar)) {
-                newChar = NUMERIC_OR_SPECIAL_HEADER;
+        LinkedHashMap<String, ArrayList<AppInfo>> groups =
+                new LinkedHashMap<String, ArrayList<AppInfo>>();
+        HashMap<String, Integer> bucketIndices = new HashMap<String, Integer>();
+        for (AppInfo app : info) {
+            int bucketIndex = app.getBucketIndex();
+            String startString = localeUtils.getBucketLabel(bucketIndex);
+            if (TextUtils.isEmpty(startString)) {
+                startString = NUMERIC_OR_SPECIAL_HEADER;
+                bucketIndex = localeUtils.getBucketIndex(startString);
             }
-            // if same character
-            if (newChar.equals(startString)) {
-                // add it
-                appInfos.add(info1);
+            ArrayList<AppInfo> group = groups.get(startString);
+            if (group == null) {
+                group = new ArrayList<AppInfo>();
+                groups.put(startString, group);
+                bucketIndices.put(startString, bucketIndex);
             }
+            group.add(app);
         }
 
-        Collections.sort(appInfos, LauncherModel.getAppNameComparator());
-
-        for (int i = 0; i < appInfos.size(); i += mNumColumns) {
-            int endIndex = (int) Math.min(i + mNumColumns, appInfos.size());
-            ArrayList<AppInfo> subList = new ArrayList<AppInfo>(appInfos.subList(i, endIndex));
-            AppItemIndexedInfo indexInfo;
-            indexInfo = new AppItemIndexedInfo(startString, bucketIndex, subList, i != 0);
-            mHeaderList.add(indexInfo);
+        Comparator<AppInfo> comparator = LauncherModel.getAppNameComparator();
+        for (Map.Entry<String, ArrayList<AppInfo>> entry : groups.entrySet()) {
+            String startString = entry.getKey();
+            int bucketIndex = bucketIndices.get(startString);
+            ArrayList<AppInfo> appInfos = entry.getValue();
+            Collections.sort(appInfos, comparator);
+
+            for (int i = 0; i < appInfos.size(); i += mNumColumns) {
+                int endIndex = Math.min(i + mNumColumns, appInfos.size());
+                ArrayList<AppInfo> subList = new ArrayList<AppInfo>(appInfos.subList(i, endIndex));
+                mHeaderList.add(new AppItemIndexedInfo(startString, bucketIndex, subList, i != 0));
+            }
         }
+        // Stable, so the rows of a bucket stay in order
+        Collections.sort(mHeaderList);
+    }
 
-        for (AppInfo remove : appInfos) {
-            // remove from mApps
-            tempInfo.remove(remove);
-        }
-        populateByCharacter(tempInfo);
+    /**
+     * Rebuilds the rows and the sections from the apps.
+     */
+    void populateSections(ArrayList<AppInfo> list) {
+        mHeaderList.clear();
+        populateByCharacter(list);
+        populateSectionHeaders();
     }
 
     public void setApps(ArrayList<AppInfo> list) {
@@ -496,18 +501,20 @@ public class AppDrawerListAdapter extends RecyclerView.Adapter<AppDrawerListAdap
             initParams();
 
             filterProtectedApps(list);
+            mSearchIndex.setApps(list);
 
-            mHeaderList.clear();
-            populateByCharacter(list);
-            populateSectionHeaders();
+            populateSections(getVisibleApps());
             mLauncher.updateScrubber();
             this.notifyDataSetChanged();
         }
     }
 
     private void populateSectionHeaders() {
-        if (mSectionHeaders == null || mSectionHeaders.size() != mHeaderList.size()) {
+        if (mSectionHeaders == null) {
             mSectionHeaders = new LinkedHashMap<>();
+        } else {
+            // The filtered rows can have other sections than the previous ones
+            mSectionHeaders.clear();
         }
 
         int sectionIndex = 0;
@@ -521,23 +528,60 @@ public class AppDrawerListAdapter extends RecyclerView.Adapter<AppDrawerListAdap
     }
 
     public void reset() {
-        ArrayList<AppInfo> infos = getAllApps();
+        ArrayList<AppInfo> infos = mSearchIndex.getApps();
 
         mLauncher.mAppDrawer.getLayoutManager().removeAllViews();
 
         setApps(infos);
     }
 
-    private ArrayList<AppInfo> getAllApps() {
-        ArrayList<AppInfo> indexedInfos = new ArrayList<AppInfo>();
+    /**
+     * Only shows the apps with a label or a lookup key starting with the query, or all of them
+     * if it is blank. See {@link AppSearchIndex}.
+     */
+    public void setSearchQuery(String query) {
+        if (!LauncherAppState.isDisableAllApps() && !mSearchQuery.equals(query)) {
+            mSearchQuery = query;
+            updateRows();
+        }
+    }
 
+    /**
+     * Returns all the apps of the drawer, whatever the query.
+     */
+    ArrayList<AppInfo> getApps() {
+        return mSearchIndex.getApps();
+    }
+
+    private ArrayList<AppInfo> getVisibleApps() {
+        return mSearchIndex.search(mSearchQuery);
+    }
+
+    /**
+     * Updates the unread count badges of the supplied apps. Only the rows holding them are
+     * rebound, the sections are left alone.
+     */
+    public void updateAppBadges(ArrayList<AppInfo> list) {
+        if (LauncherAppState.isDisableAllApps()) {
+            return;
+        }
+        HashMap<ComponentName, AppInfo> updated = new HashMap<ComponentName, AppInfo>();
+        for (AppInfo info : list) {
+            updated.put(info.componentName, info);
+        }
         for (int j = 0; j < mHeaderList.size(); ++j) {
-            AppItemIndexedInfo indexedInfo = mHeaderList.get(j);
-            for (AppInfo info : indexedInfo.mInfo) {
-                indexedInfos.add(info);
+            boolean changed = false;
+            for (AppInfo info : mHeaderList.get(j).mInfo) {
+                AppInfo update = updated.get(info.componentName);
+                if (update != null && update.user.equals(info.user)) {
+                    info.unreadNum = update.unreadNum;
+                    changed = true;
+                }
+            }
+            if (changed) {
+                notifyItemChanged(j);
             }
         }
-        return indexedInfos;
     }
 
     public void updateApps(ArrayList<AppInfo> list) {
@@ -545,102 +589,171 @@ public class AppDrawerListAdapter extends RecyclerView.Adapter<AppDrawerListAdap
         // changed (ie. the title), and this will ensure that the items will be in their proper
         // place in the list.
         if (!LauncherAppState.isDisableAllApps()) {
-            removeAppsWithoutInvalidate(list);
-            addAppsWithoutInvalidate(list);
-            reset();
+            replaceApps(list);
         }
     }
 
 
     public void addApps(ArrayList<AppInfo> list) {
         if (!LauncherAppState.isDisableAllApps()) {
-            addAppsWithoutInvalidate(list);
-            reset();
+            // An app which is already there is replaced rather than listed twice
+            replaceApps(list);
         }
     }
 
-    private void addAppsWithoutInvalidate(ArrayList<AppInfo> list) {
-        // We add it in place, in alphabetical order
-        LocaleUtils localeUtils = LocaleUtils.getInstance();
+    public void removeApps(ArrayList<AppInfo> appInfos) {
+        if (!LauncherAppState.isDisableAllApps()) {
+            mSearchIndex.removeApps(appInfos);
+            updateRows();
+        }
+    }
 
-        int count = list.size();
-        for (int i = 0; i < count; ++i) {
-            AppInfo info = list.get(i);
-            boolean found = false;
-            AppItemIndexedInfo lastInfoForSection = null;
-            int bucketIndex = localeUtils.getBucketIndex(info.title.toString());
-            String start = localeUtils.getBucketLabel(bucketIndex);
-            if (TextUtils.isEmpty(start)) {
-                start = NUMERIC_OR_SPECIAL_HEADER;
-                bucketIndex = localeUtils.getBucketIndex(start);
-            }
-            for (int j = 0; j < mHeaderList.size(); ++j) {
-                AppItemIndexedInfo indexedInfo = mHeaderList.get(j);
-                if (start.equals(indexedInfo.mStartString)) {
-                    Collections.sort(indexedInfo.mInfo, LauncherModel.getAppNameComparator());
-                    int index =
-                            Collections.binarySearch(indexedInfo.mInfo,
-                                    info, LauncherModel.getAppNameComparator());
-                    if (index >= 0) {
-                        found = true;
-                        break;
-                    } else {
-                        lastInfoForSection = indexedInfo;
-                    }
-                }
+    private void replaceApps(ArrayList<AppInfo> list) {
+        // An app may have been protected since
+        mSearchIndex.removeApps(list);
+        ArrayList<AppInfo> apps = new ArrayList<AppInfo>(list);
+        filterProtectedApps(apps);
+        mSearchIndex.addApps(apps);
+        updateRows(list);
+    }
+
+    private void updateRows() {
+        updateRows(null);
+    }
+
+    /**
+     * Rebuilds the rows from the apps to show, and only notifies the rows which were inserted,
+     * removed or changed since, so that the holders of the other rows are kept as they are. The
+     * rows holding one of "changedApps" are rebound even if they hold the same objects, as the
+     * model updates the title and icon of an app in place.
+     */
+    private void updateRows(ArrayList<AppInfo> changedApps) {
+        int numColumns = mNumColumns;
+        initParams();
+        if (numColumns != mNumColumns) {
+            // Every row changes
+            reset();
+            return;
+        }
+
+        ArrayList<AppItemIndexedInfo> oldRows = new ArrayList<AppItemIndexedInfo>(mHeaderList);
+        populateSections(getVisibleApps());
+        HashSet<Object> changedKeys = new HashSet<Object>();
+        if (changedApps != null) {
+            for (AppInfo app : changedApps) {
+                changedKeys.add(AppSearchIndex.getKey(app));
+            }
+        }
+        dispatchRowUpdates(oldRows, mHeaderList, changedKeys);
+        mLauncher.updateScrubber();
+    }
+
+    /**
+     * Notifies the difference between the old and the new rows. A row is identified by its
+     * section and its index within the section, and has changed when it holds other apps, or one
+     * of the apps in "changedKeys", see {@link AppSearchIndex#getKey}. Both lists are sorted by
+     * section, so the rows never move and a single merge of the two lists finds the rows to
+     * insert, remove and rebind.
+     */
+    void dispatchRowUpdates(List<AppItemIndexedInfo> oldRows, List<AppItemIndexedInfo> newRows,
+            HashSet<Object> changedKeys) {
+        int[] oldIndices = getIndicesInSection(oldRows);
+        int[] newIndices = getIndicesInSection(newRows);
+        RowUpdateBatch batch = new RowUpdateBatch();
+
+        // Position of the next row, as seen by the adapter after the updates so far
+        int position = 0;
+        int i = 0;
+        int j = 0;
+        while (i < oldRows.size() || j < newRows.size()) {
+            int order;
+            if (i == oldRows.size()) {
+                order = 1;
+            } else if (j == newRows.size()) {
+                order = -1;
+            } else {
+                order = compareRows(oldRows.get(i), oldIndices[i], newRows.get(j), newIndices[j]);
             }
-            if (!found) {
-                if (lastInfoForSection != null) {
-                    lastInfoForSection.mInfo.add(info);
-                } else {
-                    // we need to create a new section
-                    ArrayList<AppInfo> newInfos = new ArrayList<AppInfo>();
-                    newInfos.add(info);
-                    AppItemIndexedInfo newInfo =
-                            new AppItemIndexedInfo(start, bucketIndex, newInfos, false);
-                    mHeaderList.add(newInfo);
-                    Collections.sort(mHeaderList);
+
+            if (order < 0) {
+                batch.add(RowUpdateBatch.REMOVE, position);
+                i++;
+            } else if (order > 0) {
+                batch.add(RowUpdateBatch.INSERT, position);
+                position++;
+                j++;
+            } else {
+                AppItemIndexedInfo newRow = newRows.get(j);
+                if (!oldRows.get(i).hasSameApps(newRow) || newRow.holdsAnyApp(changedKeys)) {
+                    batch.add(RowUpdateBatch.CHANGE, position);
                 }
+                position++;
+                i++;
+                j++;
             }
         }
+        batch.dispatch();
     }
 
-    public void removeApps(ArrayList<AppInfo> appInfos) {
-        if (!LauncherAppState.isDisableAllApps()) {
-            removeAppsWithoutInvalidate(appInfos);
-            //recreate everything
-            reset();
+    private static int[] getIndicesInSection(List<AppItemIndexedInfo> rows) {
+        int[] indices = new int[rows.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = rows.get(i).isChild ? indices[i - 1] + 1 : 0;
         }
+        return indices;
     }
 
-    private void removeAppsWithoutInvalidate(ArrayList<AppInfo> list) {
-        // loop through all the apps and remove apps that have the same component
-        int length = list.size();
-        for (int i = 0; i < length; ++i) {
-            AppInfo info = list.get(i);
-            for (int j = 0; j < mHeaderList.size(); ++j) {
-                AppItemIndexedInfo indexedInfo = mHeaderList.get(j);
-                ArrayList<AppInfo> clonedIndexedInfoApps =
-                        (ArrayList<AppInfo>) indexedInfo.mInfo.clone();
-                int index =
-                        findAppByComponent(clonedIndexedInfoApps, info);
-                if (index > -1) {
-                    indexedInfo.mInfo.remove(info);
-                }
-            }
+    private static int compareRows(AppItemIndexedInfo a, int indexA, AppItemIndexedInfo b,
+            int indexB) {
+        int order = a.compareTo(b);
+        if (order == 0) {
+            order = a.mStartString.compareTo(b.mStartString);
         }
+        return order != 0 ? order : Integer.compare(indexA, indexB);
     }
 
-    private int findAppByComponent(List<AppInfo> list, AppInfo item) {
-        ComponentName removeComponent = item.intent.getComponent();
-        int length = list.size();
-        for (int i = 0; i < length; ++i) {
-            AppInfo info = list.get(i);
-            if (info.intent.getComponent().equals(removeComponent)) {
-                return i;
+    /**
+     * Coalesces the updates of consecutive rows into range notifications.
+     */
+    private class RowUpdateBatch {
+        static final int INSERT = 1;
+        static final int REMOVE = 2;
+        static final int CHANGE = 3;
+
+        private int mType;
+        private int mStart;
+        private int mCount;
+
+        void add(int type, int position) {
+            // Removed rows all sit at the same position, the others follow each other
+            int next = type == REMOVE ? mStart : mStart + mCount;
+            if (mCount > 0 && (type != mType || position != next)) {
+                dispatch();
+            }
+            if (mCount == 0) {
+                mType = type;
+                mStart = position;
             }
+            mCount++;
+        }
+
+        void dispatch() {
+            if (mCount == 0) {
+                return;
+            }
+            switch (mType) {
+                case INSERT:
+                    notifyItemRangeInserted(mStart, mCount);
+                    break;
+                case REMOVE:
+                    notifyItemRangeRemoved(mStart, mCount);
+                    break;
+                case CHANGE:
+                    notifyItemRangeChanged(mStart, mCount);
+                    break;
+            }
+            mCount = 0;
         }
-        return -1;
     }
 
     /*
@@ -742,7 +855,8 @@ public class AppDrawerListAdapter extends RecyclerView.Adapter<AppDrawerListAdap
                 icon.setVisibility(View.VISIBLE);
                 AppInfo info = indexedInfo.mInfo.get(i);
                 icon.setTag(info);
-                Drawable d = Utilities.createIconDrawable(info.iconBitmap);
+                Drawable d = Utilities.createIconDrawable(info.iconBitmap, mLauncher,
+                        info.unreadNum);
                 d.setBounds(mIconRect);
                 icon.mIcon.setImageDrawable(d);
                 icon.mIcon.setPadding(mDeviceProfile.iconDrawablePaddingPx,
@@ -869,6 +983,36 @@ public class AppDrawerListAdapter extends RecyclerView.Adapter<AppDrawerListAdap
             return mStartString;
         }
 
+        /**
+         * Whether the row holds the same apps, in the same order, as the other row.
+         */
+        boolean hasSameApps(AppItemIndexedInfo other) {
+            if (mInfo.size() != other.mInfo.size()) {
+                return false;
+            }
+            for (int i = 0; i < mInfo.size(); i++) {
+                if (mInfo.get(i) != other.mInfo.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Whether the row holds one of the apps with the keys, see {@link AppSearchIndex#getKey}.
+         */
+        boolean holdsAnyApp(HashSet<Object> keys) {
+            if (keys.isEmpty()) {
+                return false;
+            }
+            for (AppInfo info : mInfo) {
+                if (keys.contains(AppSearchIndex.getKey(info))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         @Override
         public int compareTo(Object o) {
             if (o instanceof AppItemIndexedInfo) {
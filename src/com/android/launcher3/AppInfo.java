@@ -28,7 +28,10 @@ import android.util.Log;
 import com.android.launcher3.compat.LauncherActivityInfoCompat;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.compat.UserHandleCompat;
+import com.android.launcher3.locale.LocaleUtils;
 
+import java.text.CollationKey;
+import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -65,6 +68,15 @@ public class AppInfo extends ItemInfo {
 
     int flags = 0;
 
+    // The collation key and bucket of the title, and the title and locale they were made for.
+    // See getCollationKey() and getBucketIndex().
+    private CharSequence mCollationTitle;
+    private Collator mCollator;
+    private CollationKey mCollationKey;
+    private CharSequence mBucketTitle;
+    private LocaleUtils mBucketLocaleUtils;
+    private int mBucketIndex;
+
     AppInfo() {
         itemType = LauncherSettings.BaseLauncherColumns.ITEM_TYPE_SHORTCUT;
     }
@@ -82,12 +94,26 @@ public class AppInfo extends ItemInfo {
      */
     public AppInfo(Context context, LauncherActivityInfoCompat info, UserHandleCompat user,
             IconCache iconCache, HashMap<Object, CharSequence> labelCache) {
+        this(context, info, user, iconCache, labelCache, true);
+    }
+
+    /**
+     * Must not hold the Context.
+     * @param renderIcon if false, the icon is not rendered and may be the default icon, see
+     *            {@link IconCache#getTitleAndCachedIcon}.
+     */
+    AppInfo(Context context, LauncherActivityInfoCompat info, UserHandleCompat user,
+            IconCache iconCache, HashMap<Object, CharSequence> labelCache, boolean renderIcon) {
         this.componentName = info.getComponentName();
         this.container = ItemInfo.NO_ID;
 
         flags = initFlags(info);
         firstInstallTime = info.getFirstInstallTime();
-        iconCache.getTitleAndIcon(this, info, labelCache);
+        if (renderIcon) {
+            iconCache.getTitleAndIcon(this, info, labelCache);
+        } else {
+            iconCache.getTitleAndCachedIcon(this, info, labelCache);
+        }
         intent = makeLaunchIntent(context, info, user);
         this.user = user;
     }
@@ -128,6 +154,35 @@ public class AppInfo extends ItemInfo {
         iconBitmap = info.iconBitmap;
     }
 
+    /**
+     * Returns the key to sort the app by title with, made once per title and locale.
+     */
+    synchronized CollationKey getCollationKey() {
+        Collator collator = Utilities.getCollator();
+        if (mCollationKey == null || title != mCollationTitle || collator != mCollator) {
+            synchronized (collator) {
+                mCollationKey = collator.getCollationKey(title.toString().trim());
+            }
+            mCollationTitle = title;
+            mCollator = collator;
+        }
+        return mCollationKey;
+    }
+
+    /**
+     * Returns the index of the app drawer bucket of the title, see
+     * {@link LocaleUtils#getBucketIndex}, computed once per title and locale.
+     */
+    synchronized int getBucketIndex() {
+        LocaleUtils localeUtils = LocaleUtils.getInstance();
+        if (title != mBucketTitle || localeUtils != mBucketLocaleUtils) {
+            mBucketIndex = localeUtils.getBucketIndex(title.toString());
+            mBucketTitle = title;
+            mBucketLocaleUtils = localeUtils;
+        }
+        return mBucketIndex;
+    }
+
     @Override
     public String toString() {
         return "ApplicationInfo(title=" + title.toString() + " id=" + this.id
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.provider.ContactsContract.FullNameStyle;
+import android.provider.ContactsContract.PhoneticNameStyle;
+import android.util.Pair;
+
+import com.android.launcher3.locale.LocaleUtils;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds the apps of the app drawer whose label starts with what the user typed. Every app is
+ * indexed under the normalized label from the start of each of its words, and under the extra
+ * lookup keys of the locale, which are the pinyin spellings and initials in Simplified Chinese
+ * and the romaji in Japanese. A lookup is a range query on the sorted keys.
+ *
+ * Apps are added and removed as the packages change. Only used on the main thread.
+ */
+class AppSearchIndex {
+
+    private static class Entry {
+        final AppInfo app;
+        final String[] keys;
+
+        Entry(AppInfo app, String[] keys) {
+            this.app = app;
+            this.keys = keys;
+        }
+    }
+
+    // The indexed apps by component and user, in the order they were added
+    private final LinkedHashMap<Object, Entry> mEntries = new LinkedHashMap<Object, Entry>();
+    // The apps under each key
+    private final TreeMap<String, ArrayList<AppInfo>> mKeys =
+            new TreeMap<String, ArrayList<AppInfo>>();
+
+    /**
+     * Returns the key identifying the app, by component and user.
+     */
+    static Object getKey(AppInfo app) {
+        return Pair.create(app.componentName, app.user);
+    }
+
+    /**
+     * Replaces the indexed apps.
+     */
+    void setApps(ArrayList<AppInfo> apps) {
+        mEntries.clear();
+        mKeys.clear();
+        addApps(apps);
+    }
+
+    /**
+     * Adds the apps, replacing those with the same component and user.
+     */
+    void addApps(ArrayList<AppInfo> apps) {
+        removeApps(apps);
+        for (AppInfo app : apps) {
+            String[] keys = getLookupKeys(app.title.toString());
+            for (String key : keys) {
+                ArrayList<AppInfo> keyApps = mKeys.get(key);
+                if (keyApps == null) {
+                    keyApps = new ArrayList<AppInfo>(1);
+                    mKeys.put(key, keyApps);
+                }
+                keyApps.add(app);
+            }
+            mEntries.put(getKey(app), new Entry(app, keys));
+        }
+    }
+
+    /**
+     * Removes the apps with the same component and user as the supplied ones.
+     */
+    void removeApps(ArrayList<AppInfo> apps) {
+        for (AppInfo app : apps) {
+            Entry entry = mEntries.remove(getKey(app));
+            if (entry == null) {
+                continue;
+            }
+            for (String key : entry.keys) {
+                ArrayList<AppInfo> keyApps = mKeys.get(key);
+                keyApps.remove(entry.app);
+                if (keyApps.isEmpty()) {
+                    mKeys.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns all the indexed apps.
+     */
+    ArrayList<AppInfo> getApps() {
+        ArrayList<AppInfo> apps = new ArrayList<AppInfo>(mEntries.size());
+        for (Entry entry : mEntries.values()) {
+            apps.add(entry.app);
+        }
+        return apps;
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns the apps with a key starting with the normalized query, sorted by name, or all the
+     * apps if the query is blank.
+     */
+    ArrayList<AppInfo> search(String query) {
+        String prefix = normalize(query).trim();
+        if (prefix.isEmpty()) {
+            return getApps();
+        }
+
+        // The keys starting with the prefix sort between the prefix and the prefix followed by
+        // the last character
+        HashSet<AppInfo> found = new HashSet<AppInfo>();
+        ArrayList<AppInfo> apps = new ArrayList<AppInfo>();
+        for (Map.Entry<String, ArrayList<AppInfo>> entry
+                : mKeys.subMap(prefix, true, prefix + Character.MAX_VALUE, true).entrySet()) {
+            for (AppInfo app : entry.getValue()) {
+                if (found.add(app)) {
+                    apps.add(app);
+                }
+            }
+        }
+        Collections.sort(apps, LauncherModel.getAppNameComparator());
+        return apps;
+    }
+
+    /**
+     * Returns the keys to find the label with: the normalized label from the start of each word,
+     * and the normalized lookup keys of the locale.
+     */
+    static String[] getLookupKeys(String label) {
+        HashSet<String> keys = new HashSet<String>();
+        String normalized = normalize(label).trim();
+        for (int i = 0; i < normalized.length(); i++) {
+            if (Character.isLetterOrDigit(normalized.charAt(i))
+                    && (i == 0 || !Character.isLetterOrDigit(normalized.charAt(i - 1)))) {
+                keys.add(normalized.substring(i));
+            }
+        }
+
+        LocaleUtils localeUtils = LocaleUtils.getInstance();
+        addLookupKeys(keys, localeUtils.getNameLookupKeys(label, FullNameStyle.CHINESE));
+        addLookupKeys(keys, localeUtils.getNameLookupKeys(label, PhoneticNameStyle.JAPANESE));
+        keys.remove("");
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    private static void addLookupKeys(HashSet<String> keys, Iterator<String> lookupKeys) {
+        if (lookupKeys != null) {
+            while (lookupKeys.hasNext()) {
+                keys.add(normalize(lookupKeys.next()).trim());
+            }
+        }
+    }
+
+    /**
+     * Lower cases the text and strips its accents, so that "Éc" finds "ecran".
+     */
+    static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder normalized = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+}
@@ -54,6 +54,7 @@ import com.android.launcher3.settings.SettingsProvider;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 
@@ -1809,6 +1810,40 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         }
     }
 
+    /**
+     * Updates the unread count badges of the supplied apps, without rebuilding the pages.
+     */
+    public void updateAppBadges(ArrayList<AppInfo> list) {
+        if (LauncherAppState.isDisableAllApps()) {
+            return;
+        }
+        HashMap<ComponentName, AppInfo> updated = new HashMap<ComponentName, AppInfo>();
+        for (AppInfo info : list) {
+            updated.put(info.componentName, info);
+        }
+        int count = getChildCount();
+        for (int i = 0; i < count; i++) {
+            View page = getPageAt(i);
+            if (!(page instanceof AppsCustomizeCellLayout)) {
+                continue;
+            }
+            ViewGroup children = ((AppsCustomizeCellLayout) page).getShortcutsAndWidgets();
+            int childCount = children.getChildCount();
+            for (int j = 0; j < childCount; j++) {
+                View child = children.getChildAt(j);
+                if (!(child instanceof BubbleTextView) || !(child.getTag() instanceof AppInfo)) {
+                    continue;
+                }
+                AppInfo tag = (AppInfo) child.getTag();
+                AppInfo info = updated.get(tag.componentName);
+                if (info != null && info.user.equals(tag.user)) {
+                    tag.unreadNum = info.unreadNum;
+                    ((BubbleTextView) child).applyUnreadBadge(tag);
+                }
+            }
+        }
+    }
+
     public void updateApps(ArrayList<AppInfo> list) {
         // We remove and re-add the updated applications list because it's properties may have
         // changed (ie. the title), and this will ensure that the items will be in their proper
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The binds which the launcher postponed while it was paused, see Launcher#waitUntilResume.
+ *
+ * A bind queued with a key supersedes the pending bind with the same key, so that only the net
+ * effect is replayed: the earlier bind is dropped and the new one goes to the end of the queue,
+ * after the binds it may depend on. Binds of single items, like the update of an app, are keyed
+ * by their {@link ItemsBinder} and item, and the consecutive ones of the same binder are replayed
+ * as a single batch. Only used on the main thread.
+ */
+class BindOnResumeQueue {
+    private static final String TAG = "Launcher.BindOnResumeQueue";
+
+    /**
+     * Binds a batch of items, such as apps to update in all apps.
+     */
+    interface ItemsBinder<T> {
+        void bindItems(ArrayList<T> items);
+    }
+
+    private static class ItemKey {
+        final ItemsBinder<?> binder;
+        final Object key;
+
+        ItemKey(ItemsBinder<?> binder, Object key) {
+            this.binder = binder;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ItemKey)) {
+                return false;
+            }
+            ItemKey other = (ItemKey) o;
+            return binder == other.binder && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(binder) + key.hashCode();
+        }
+    }
+
+    private static class Entry {
+        final Runnable runnable;
+        final ItemsBinder<Object> binder;
+        final Object item;
+
+        Entry(Runnable runnable, ItemsBinder<Object> binder, Object item) {
+            this.runnable = runnable;
+            this.binder = binder;
+            this.item = item;
+        }
+    }
+
+    // In the order they will be replayed. Binds without a key get a key of their own.
+    private final LinkedHashMap<Object, Entry> mEntries = new LinkedHashMap<Object, Entry>();
+
+    // Binds queued and binds superseded since the queue was created
+    private int mQueuedCount;
+    private int mCollapsedCount;
+
+    /**
+     * Queues a bind which does not supersede any other.
+     */
+    void add(Runnable r) {
+        put(new Object(), new Entry(r, null, null));
+    }
+
+    /**
+     * Queues a bind, which supersedes the pending bind with the same key, if any.
+     */
+    void add(Object key, Runnable r) {
+        put(key, new Entry(r, null, null));
+    }
+
+    /**
+     * Queues the bind of an item, which supersedes the pending bind of the item with the same
+     * key by the same binder, if any.
+     */
+    @SuppressWarnings("unchecked")
+    <T> void addItem(ItemsBinder<T> binder, Object key, T item) {
+        put(new ItemKey(binder, key), new Entry(null, (ItemsBinder<Object>) binder, item));
+    }
+
+    /**
+     * Drops the pending bind of the item with the key by the binder, for example because the
+     * item was removed since.
+     */
+    void removeItem(ItemsBinder<?> binder, Object key) {
+        if (mEntries.remove(new ItemKey(binder, key)) != null) {
+            mCollapsedCount++;
+        }
+    }
+
+    private void put(Object key, Entry entry) {
+        mQueuedCount++;
+        if (mEntries.remove(key) != null) {
+            mCollapsedCount++;
+        }
+        mEntries.put(key, entry);
+    }
+
+    boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * Runs the pending binds in order, and empties the queue.
+     */
+    void run() {
+        Log.i(TAG, "Replaying " + mEntries.size() + " postponed binds, " + mCollapsedCount
+                + " of " + mQueuedCount + " collapsed so far");
+        // Binds can queue more binds, which are run with the next resume
+        ArrayList<Entry> entries = new ArrayList<Entry>(mEntries.values());
+        mEntries.clear();
+
+        ArrayList<Object> batch = new ArrayList<Object>();
+        Iterator<Entry> it = entries.iterator();
+        Entry next = it.hasNext() ? it.next() : null;
+        while (next != null) {
+            Entry entry = next;
+            next = it.hasNext() ? it.next() : null;
+            if (entry.binder == null) {
+                entry.runnable.run();
+                continue;
+            }
+            batch.add(entry.item);
+            if (next == null || next.binder != entry.binder) {
+                entry.binder.bindItems(batch);
+                batch = new ArrayList<Object>();
+            }
+        }
+    }
+
+    int getQueuedCount() {
+        return mQueuedCount;
+    }
+
+    int getCollapsedCount() {
+        return mCollapsedCount;
+    }
+
+    void dumpState() {
+        Log.d(TAG, "pending=" + mEntries.size() + " queued=" + mQueuedCount
+                + " collapsed=" + mCollapsedCount);
+    }
+}
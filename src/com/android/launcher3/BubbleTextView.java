@@ -144,7 +144,8 @@ public class BubbleTextView extends TextView {
         LauncherAppState app = LauncherAppState.getInstance();
         DeviceProfile grid = app.getDynamicGrid().getDeviceProfile();
 
-        Drawable topDrawable = Utilities.createIconDrawable(info.iconBitmap);
+        Drawable topDrawable = Utilities.createIconDrawable(info.iconBitmap, getContext(),
+                info.unreadNum);
         topDrawable.setBounds(0, 0, grid.allAppsIconSizePx, grid.allAppsIconSizePx);
         setCompoundDrawables(null, topDrawable, null, null);
         setCompoundDrawablePadding(grid.iconDrawablePaddingPx);
@@ -156,6 +157,17 @@ public class BubbleTextView extends TextView {
     }
 
 
+    /**
+     * Updates the unread count badge of an icon applied with {@link #applyFromApplicationInfo}.
+     */
+    public void applyUnreadBadge(AppInfo info) {
+        Drawable top = getCompoundDrawables()[1];
+        if (top instanceof FastBitmapDrawable) {
+            ((FastBitmapDrawable) top).setBadge(
+                    Utilities.getUnreadBadge(getContext(), info.unreadNum));
+        }
+    }
+
     @Override
     protected boolean setFrame(int left, int top, int right, int bottom) {
         if (getLeft() != left || getRight() != right || getTop() != top || getBottom() != bottom) {
@@ -21,6 +21,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.MessageQueue;
 import android.util.Pair;
+import android.view.Choreographer;
 
 import java.util.LinkedList;
 import java.util.ListIterator;
@@ -35,28 +36,83 @@ import java.util.ListIterator;
 public class DeferredHandler {
     private LinkedList<Pair<Runnable, Integer>> mQueue = new LinkedList<Pair<Runnable, Integer>>();
     private MessageQueue mMessageQueue = Looper.myQueue();
+    private Choreographer mChoreographer = Choreographer.getInstance();
     private Impl mHandler = new Impl();
+    // Whether a message, idle handler or frame callback is pending to run the head of the
+    // queue. There is only ever one of them, guarded by mQueue.
+    private boolean mScheduled;
 
-    private class Impl extends Handler implements MessageQueue.IdleHandler {
+    private class Impl extends Handler implements MessageQueue.IdleHandler,
+            Choreographer.FrameCallback {
         public void handleMessage(Message msg) {
+            runNext(System.nanoTime());
+        }
+
+        public boolean queueIdle() {
+            handleMessage(null);
+            return false;
+        }
+
+        public void doFrame(long frameTimeNanos) {
+            runNext(frameTimeNanos);
+        }
+
+        private void runNext(long frameTimeNanos) {
             Pair<Runnable, Integer> p;
             Runnable r;
             synchronized (mQueue) {
+                mScheduled = false;
                 if (mQueue.size() == 0) {
                     return;
                 }
-                p = mQueue.removeFirst();
+                p = mQueue.getFirst();
                 r = p.first;
+                if (!(r instanceof FrameRunnable)) {
+                    mQueue.removeFirst();
+                }
+            }
+            if (r instanceof FrameRunnable) {
+                boolean done = ((FrameRunnable) r).runStep(frameTimeNanos);
+                synchronized (mQueue) {
+                    boolean cancelled = mQueue.isEmpty() || mQueue.getFirst() != p;
+                    if (!done && !cancelled) {
+                        // Keep it at the head of the queue, and go on with the next frame
+                        mScheduled = true;
+                        mChoreographer.postFrameCallback(this);
+                        return;
+                    }
+                    if (!cancelled) {
+                        mQueue.removeFirst();
+                    }
+                }
+            } else {
+                r.run();
             }
-            r.run();
             synchronized (mQueue) {
                 scheduleNextLocked();
             }
         }
+    }
 
-        public boolean queueIdle() {
-            handleMessage(null);
-            return false;
+    /**
+     * Runnable which does its work over several frames. The queue calls {@link #runStep} once
+     * per frame, and only moves on to the next runnable once it returns true.
+     */
+    public static abstract class FrameRunnable implements Runnable {
+        /**
+         * Does the part of the work which fits in the current frame.
+         * @param frameTimeNanos the start of the frame, in the {@link System#nanoTime} base
+         * @return whether all the work is done
+         */
+        public abstract boolean runStep(long frameTimeNanos);
+
+        /** Does all the remaining work at once. */
+        @Override
+        public final void run() {
+            boolean done;
+            do {
+                done = runStep(System.nanoTime());
+            } while (!done);
         }
     }
 
@@ -82,9 +138,7 @@ public class DeferredHandler {
     public void post(Runnable runnable, int type) {
         synchronized (mQueue) {
             mQueue.add(new Pair<Runnable, Integer>(runnable, type));
-            if (mQueue.size() == 1) {
-                scheduleNextLocked();
-            }
+            scheduleNextLocked();
         }
     }
 
@@ -117,6 +171,7 @@ public class DeferredHandler {
     public void cancel() {
         synchronized (mQueue) {
             mQueue.clear();
+            unscheduleLocked();
         }
     }
 
@@ -126,14 +181,19 @@ public class DeferredHandler {
         synchronized (mQueue) {
             queue.addAll(mQueue);
             mQueue.clear();
+            unscheduleLocked();
         }
         for (Pair<Runnable, Integer> p : queue) {
             p.first.run();
         }
     }
 
+    /**
+     * Schedules running the head of the queue, unless it is already scheduled.
+     */
     void scheduleNextLocked() {
-        if (mQueue.size() > 0) {
+        if (mQueue.size() > 0 && !mScheduled) {
+            mScheduled = true;
             Pair<Runnable, Integer> p = mQueue.getFirst();
             Runnable peek = p.first;
             if (peek instanceof IdleRunnable) {
@@ -143,5 +203,15 @@ public class DeferredHandler {
             }
         }
     }
-}
 
+    /**
+     * Drops the pending message, idle handler or frame callback, so that a later post starts
+     * a single new chain.
+     */
+    private void unscheduleLocked() {
+        mHandler.removeMessages(1);
+        mMessageQueue.removeIdleHandler(mHandler);
+        mChoreographer.removeFrameCallback(mHandler);
+        mScheduled = false;
+    }
+}
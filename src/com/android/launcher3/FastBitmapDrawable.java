@@ -66,6 +66,10 @@ class FastBitmapDrawable extends Drawable {
     private final Bitmap mBitmap;
     private int mAlpha;
 
+    // Unread count badge drawn over the top right corner of mBitmap, may be null.
+    private Bitmap mBadge;
+    private final Rect mBadgeRect = new Rect();
+
     private int mBrightness = 0;
     private boolean mGhostModeEnabled = false;
 
@@ -83,6 +87,25 @@ class FastBitmapDrawable extends Drawable {
         final Rect r = getBounds();
         // Draw the bitmap into the bounding rect
         canvas.drawBitmap(mBitmap, null, r, mPaint);
+        if (mBadge != null) {
+            // The badge is sized for mBitmap, scale it along with it
+            final float scale = (float) r.width() / mBitmap.getWidth();
+            mBadgeRect.right = r.right - Math.round(scale);
+            mBadgeRect.left = mBadgeRect.right - Math.round(mBadge.getWidth() * scale);
+            mBadgeRect.top = r.top;
+            mBadgeRect.bottom = r.top + Math.round(mBadge.getHeight() * scale);
+            canvas.drawBitmap(mBadge, null, mBadgeRect, mPaint);
+        }
+    }
+
+    /**
+     * Sets the unread count badge drawn over the icon, see {@link Utilities#getUnreadBadge}.
+     */
+    public void setBadge(Bitmap badge) {
+        if (mBadge != badge) {
+            mBadge = badge;
+            invalidateSelf();
+        }
     }
 
     @Override
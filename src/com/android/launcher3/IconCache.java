@@ -18,13 +18,19 @@ package com.android.launcher3;
 
 import android.app.ActivityManager;
 import android.content.ComponentName;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
@@ -39,24 +45,40 @@ import com.android.launcher3.compat.UserManagerCompat;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Cache of application icons.  Icons can be made from any thread.
+ *
+ * Lookups of cached entries never block. When an entry is missing, the first thread asking for
+ * it renders it and any other thread asking for the same entry in the meantime waits for that
+ * render instead of starting its own.
+ *
+ * The bitmaps of the entries which no bound item uses are kept under a byte budget, sized from
+ * the memory class. When it is exceeded the least recently used of them are evicted. The entries
+ * of the workspace items and of all apps are pinned, see {@link #setPinnedItems} and
+ * {@link #setPinnedApps}: evicting them would free nothing, as the bound items still hold their
+ * bitmaps.
  */
 public class IconCache {
 
     private static final String TAG = "Launcher.IconCache";
 
     private static final int INITIAL_ICON_CACHE_CAPACITY = 50;
-    private static final String RESOURCE_FILE_PREFIX = "icon_";
     private final String STK_PACKAGE_NAME = "com.android.stk";
 
     // Empty class name is used for storing package default entry.
@@ -64,24 +86,53 @@ public class IconCache {
 
     private static final boolean DEBUG = false;
 
+    // Rows rendered during a load are written once this many are pending, rather than at the end
+    private static final int MAX_PENDING_ROWS = 64;
+
     private static class CacheEntry {
         public Bitmap icon;
         public CharSequence title;
         public CharSequence contentDescription;
+        // Value of mAccessClock when this entry was last used, for LRU eviction.
+        public volatile long lastAccess;
+    }
+
+    /**
+     * An icon and label read from {@link IconDB}, along with the package state it was
+     * rendered for. The icon is only decoded once the entry is actually used.
+     */
+    private static class PersistedEntry {
+        public long lastUpdateTime;
+        public int versionCode;
+        public byte[] icon;
+        public String title;
     }
 
     private static class CacheKey {
         public ComponentName componentName;
         public UserHandleCompat user;
+        private int mHashCode;
+
+        CacheKey() {
+        }
 
         CacheKey(ComponentName componentName, UserHandleCompat user) {
+            set(componentName, user);
+        }
+
+        /**
+         * Only for the per thread lookup keys in mLookupKey, keys stored in
+         * the cache must not change.
+         */
+        void set(ComponentName componentName, UserHandleCompat user) {
             this.componentName = componentName;
             this.user = user;
+            mHashCode = componentName == null ? 0 : componentName.hashCode() + user.hashCode();
         }
 
         @Override
         public int hashCode() {
-            return componentName.hashCode() + user.hashCode();
+            return mHashCode;
         }
 
         @Override
@@ -91,17 +142,90 @@ public class IconCache {
         }
     }
 
-    private final HashMap<UserHandleCompat, Bitmap> mDefaultIcons =
-            new HashMap<UserHandleCompat, Bitmap>();
+    /**
+     * A render of a cache entry which other threads can wait on.
+     */
+    private static class PendingEntry extends FutureTask<CacheEntry> {
+        PendingEntry(Callable<CacheEntry> callable) {
+            super(callable);
+        }
+    }
+
+    private final ConcurrentHashMap<UserHandleCompat, Bitmap> mDefaultIcons =
+            new ConcurrentHashMap<UserHandleCompat, Bitmap>();
     private final Context mContext;
     private final PackageManager mPackageManager;
     private final UserManagerCompat mUserManager;
     private final LauncherAppsCompat mLauncherApps;
-    private final HashMap<CacheKey, CacheEntry> mCache =
-            new HashMap<CacheKey, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY);
+    private final ConcurrentHashMap<CacheKey, CacheEntry> mCache =
+            new ConcurrentHashMap<CacheKey, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY);
+    private final ConcurrentHashMap<CacheKey, PendingEntry> mPendingEntries =
+            new ConcurrentHashMap<CacheKey, PendingEntry>();
+    // Reusable per thread key, so that looking up a cached entry allocates nothing.
+    private final ThreadLocal<CacheKey> mLookupKey = new ThreadLocal<CacheKey>() {
+        @Override
+        protected CacheKey initialValue() {
+            return new CacheKey();
+        }
+    };
+    // Interned ComponentNames of the package default entries, keyed by package name.
+    private final ConcurrentHashMap<String, ComponentName> mPackageComponents =
+            new ConcurrentHashMap<String, ComponentName>();
     private int mIconDpi;
 
+    // Byte budget of the entries of mCache which are not pinned, see
+    // config_iconCacheMemoryPercent.
+    private final long mMaxBytes;
+    private final AtomicLong mCacheBytes = new AtomicLong();
+    // mMaxBytes plus the bytes of the pinned entries when the cache was last trimmed. The cache
+    // is only trimmed again once it grows past this.
+    private volatile long mTrimThreshold;
+    private final AtomicLong mAccessClock = new AtomicLong();
+    // Guards the trimming of the cache, and the replacement of the pinned keys.
+    private final Object mTrimLock = new Object();
+    // Entries for the items on the workspace and hotseat, and for all apps, never evicted.
+    // Replaced as a whole.
+    private volatile HashSet<CacheKey> mPinnedKeys = new HashSet<CacheKey>();
+    private volatile HashSet<CacheKey> mPinnedAppKeys = new HashSet<CacheKey>();
+
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private final AtomicInteger mEvictions = new AtomicInteger();
+
+    // Guards the persistent cache state below, which is only touched while rendering entries.
+    private final Object mPersistLock = new Object();
+    // Rows of the persistent cache which are valid for the current system state, keyed the
+    // same way as mCache. Filled by preloadPersistedEntries() and consumed by createEntry().
+    private final HashMap<CacheKey, PersistedEntry> mPersistedEntries =
+            new HashMap<CacheKey, PersistedEntry>();
+    // Package info used to validate persisted rows, memoized while a load is in progress.
+    private final HashMap<String, PackageInfo> mPackageInfos = new HashMap<String, PackageInfo>();
+    // Rendered rows waiting to be written together on the worker thread, see writePendingRows().
+    // While a load is in progress, between preloadPersistedEntries() and
+    // prunePersistedEntries(), they are written by the load itself.
+    private final ArrayList<ContentValues> mPendingRows = new ArrayList<ContentValues>();
+    private boolean mDeferWrites;
+    private boolean mWriteScheduled;
+    // Serializes the writes to mIconDb, so that rows are not written back after being removed.
+    // Taken before mPersistLock.
+    private final Object mWriteLock = new Object();
+    private final Runnable mWritePendingRowsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writePendingRows();
+        }
+    };
+    private final IconDB mIconDb;
+
     public IconCache(Context context) {
+        this(context, LauncherFiles.APP_ICONS_DB);
+    }
+
+    /**
+     * Creates a cache which persists its icons to the database "dbName" in the cache directory,
+     * so that the caches of the tests do not write to the one of the launcher.
+     */
+    public IconCache(Context context, String dbName) {
         ActivityManager activityManager =
                 (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
 
@@ -110,6 +234,10 @@ public class IconCache {
         mUserManager = UserManagerCompat.getInstance(mContext);
         mLauncherApps = LauncherAppsCompat.getInstance(mContext);
         mIconDpi = activityManager.getLauncherLargeIconDensity();
+        mIconDb = new IconDB(context, dbName);
+        mMaxBytes = activityManager.getMemoryClass() * 1024L * 1024L
+                * context.getResources().getInteger(R.integer.config_iconCacheMemoryPercent) / 100;
+        mTrimThreshold = mMaxBytes;
 
         // need to set mIconDpi before getting default icon
         UserHandleCompat myUser = UserHandleCompat.myUserHandle();
@@ -186,60 +314,121 @@ public class IconCache {
      * Remove any records for the supplied ComponentName.
      */
     public void remove(ComponentName componentName, UserHandleCompat user) {
-        mCache.remove(new CacheKey(componentName, user));
+        CacheKey cacheKey = new CacheKey(componentName, user);
+        mPendingEntries.remove(cacheKey);
+        removeEntry(cacheKey);
+        synchronized (mPersistLock) {
+            mPackageInfos.remove(componentName.getPackageName());
+        }
     }
 
     /**
      * Remove any records for the supplied package name.
      */
-    public synchronized void remove(String packageName, UserHandleCompat user) {
-        HashSet<CacheKey> forDeletion = new HashSet<CacheKey>();
-        for (CacheKey key: mCache.keySet()) {
+    public void remove(String packageName, UserHandleCompat user) {
+        removeKeysForPackage(mPendingEntries.keySet().iterator(), packageName, user);
+        for (CacheKey key : mCache.keySet()) {
             if (key.componentName.getPackageName().equals(packageName)
                     && key.user.equals(user)) {
-                forDeletion.add(key);
+                removeEntry(key);
             }
         }
-        for (CacheKey condemned: forDeletion) {
-            mCache.remove(condemned);
+        removePersistedPackage(packageName, user);
+    }
+
+    private static void removeKeysForPackage(Iterator<CacheKey> keys, String packageName,
+            UserHandleCompat user) {
+        while (keys.hasNext()) {
+            CacheKey key = keys.next();
+            if (key.componentName.getPackageName().equals(packageName)
+                    && key.user.equals(user)) {
+                keys.remove();
+            }
         }
     }
 
     /**
-     * Empty out the cache.
+     * Empty out the cache, including the persistent icon database.
      */
-    public synchronized void flush() {
-        mCache.clear();
+    public void flush() {
+        mPendingEntries.clear();
+        for (CacheKey key : mCache.keySet()) {
+            removeEntry(key);
+        }
+        synchronized (mWriteLock) {
+            synchronized (mPersistLock) {
+                mPersistedEntries.clear();
+                mPackageInfos.clear();
+                mPendingRows.clear();
+            }
+            try {
+                mIconDb.getWritableDatabase().delete(IconDB.TABLE_NAME, null, null);
+            } catch (SQLiteException e) {
+                Log.w(TAG, "failed to clear the icon database", e);
+            }
+        }
     }
 
     /**
      * Empty out the cache that aren't of the correct grid size
      */
-    public synchronized void flushInvalidIcons(DeviceProfile grid) {
-        Iterator<Entry<CacheKey, CacheEntry>> it = mCache.entrySet().iterator();
-        while (it.hasNext()) {
-            final CacheEntry e = it.next().getValue();
+    public void flushInvalidIcons(DeviceProfile grid) {
+        for (Entry<CacheKey, CacheEntry> entry : mCache.entrySet()) {
+            final CacheEntry e = entry.getValue();
             if ((e.icon != null) && (e.icon.getWidth() < grid.iconSizePx
                     || e.icon.getHeight() < grid.iconSizePx)) {
-                it.remove();
+                removeEntry(entry.getKey(), e);
             }
         }
+        // Persisted rows were loaded for the previous icon size
+        synchronized (mPersistLock) {
+            mPersistedEntries.clear();
+        }
     }
 
     /**
      * Fill in "application" with the icon and label for "info."
      */
-    public synchronized void getTitleAndIcon(AppInfo application, LauncherActivityInfoCompat info,
+    public void getTitleAndIcon(AppInfo application, LauncherActivityInfoCompat info,
             HashMap<Object, CharSequence> labelCache) {
-        CacheEntry entry = cacheLocked(application.componentName, info, labelCache,
-                info.getUser(), false, application.unreadNum);
+        CacheEntry entry = getEntry(application.componentName, info, labelCache,
+                info.getUser(), false);
 
         application.title = entry.title;
         application.iconBitmap = entry.icon;
         application.contentDescription = entry.contentDescription;
     }
 
-    public synchronized Bitmap getIcon(Intent intent, UserHandleCompat user) {
+    /**
+     * Fill in "application" with the label for "info" and its cached icon, or the default icon
+     * if there is none. Unlike {@link #getTitleAndIcon} this never renders an icon, nor decodes
+     * a persisted one. The label may come from "labelCache", see {@link #getPersistedLabels}.
+     */
+    public void getTitleAndCachedIcon(AppInfo application, LauncherActivityInfoCompat info,
+            HashMap<Object, CharSequence> labelCache) {
+        UserHandleCompat user = info.getUser();
+        CacheEntry entry = getCachedEntry(application.componentName, user);
+        if (entry != null) {
+            application.title = entry.title;
+            application.iconBitmap = entry.icon;
+            application.contentDescription = entry.contentDescription;
+            return;
+        }
+
+        ComponentName labelKey = info.getComponentName();
+        CharSequence title = labelCache != null ? labelCache.get(labelKey) : null;
+        if (title == null) {
+            title = info.getLabel().toString();
+            if (labelCache != null) {
+                labelCache.put(labelKey, title);
+            }
+        }
+        application.title = title;
+        application.iconBitmap = getDefaultIcon(user);
+        application.contentDescription = mUserManager.getBadgedLabelForUser(title, user);
+    }
+
+    public Bitmap getIcon(Intent intent, UserHandleCompat user) {
         ComponentName component = intent.getComponent();
         // null info means not installed, but if we have a component from the intent then
         // we should still look in the cache for restored app icons.
@@ -247,15 +436,19 @@ public class IconCache {
             return getDefaultIcon(user);
         }
 
-        LauncherActivityInfoCompat launcherActInfo = mLauncherApps.resolveActivity(intent, user);
-        CacheEntry entry = cacheLocked(component, launcherActInfo, null, user, true, -1);
+        CacheEntry entry = getCachedEntry(component, user);
+        if (entry == null) {
+            LauncherActivityInfoCompat launcherActInfo =
+                    mLauncherApps.resolveActivity(intent, user);
+            entry = getEntry(component, launcherActInfo, null, user, true);
+        }
         return entry.icon;
     }
 
     /**
      * Fill in "shortcutInfo" with the icon and label for "info."
      */
-    public synchronized void getTitleAndIcon(ShortcutInfo shortcutInfo, Intent intent,
+    public void getTitleAndIcon(ShortcutInfo shortcutInfo, Intent intent,
                                              UserHandleCompat user, boolean usePkgIcon) {
         ComponentName component = intent.getComponent();
         // null info means not installed, but if we have a component from the intent then
@@ -265,9 +458,13 @@ public class IconCache {
             shortcutInfo.title = "";
             shortcutInfo.usingFallbackIcon = true;
         } else {
-            LauncherActivityInfoCompat launcherActInfo =
-                    mLauncherApps.resolveActivity(intent, user);
-            CacheEntry entry = cacheLocked(component, launcherActInfo, null, user, usePkgIcon, -1);
+            // Only resolve the activity when the entry needs to be created
+            CacheEntry entry = getCachedEntry(component, user);
+            if (entry == null) {
+                LauncherActivityInfoCompat launcherActInfo =
+                        mLauncherApps.resolveActivity(intent, user);
+                entry = getEntry(component, launcherActInfo, null, user, usePkgIcon);
+            }
             shortcutInfo.setIcon(entry.icon);
             shortcutInfo.title = entry.title;
             shortcutInfo.usingFallbackIcon = isDefaultIcon(entry.icon, user);
@@ -275,21 +472,26 @@ public class IconCache {
     }
 
 
-    public synchronized Bitmap getDefaultIcon(UserHandleCompat user) {
-        if (!mDefaultIcons.containsKey(user)) {
-            mDefaultIcons.put(user, makeDefaultIcon(user));
+    public Bitmap getDefaultIcon(UserHandleCompat user) {
+        Bitmap icon = mDefaultIcons.get(user);
+        if (icon == null) {
+            Bitmap created = makeDefaultIcon(user);
+            icon = mDefaultIcons.putIfAbsent(user, created);
+            if (icon == null) {
+                icon = created;
+            }
         }
-        return mDefaultIcons.get(user);
+        return icon;
     }
 
-    public synchronized Bitmap getIcon(ComponentName component, LauncherActivityInfoCompat info,
+    public Bitmap getIcon(ComponentName component, LauncherActivityInfoCompat info,
                                        HashMap<Object, CharSequence> labelCache) {
 
         if (info == null || component == null) {
             return null;
         }
 
-        CacheEntry entry = cacheLocked(component, info, labelCache, info.getUser(), false, -1);
+        CacheEntry entry = getEntry(component, info, labelCache, info.getUser(), false);
         return entry.icon;
     }
 
@@ -298,15 +500,84 @@ public class IconCache {
     }
 
     /**
-     * Retrieves the entry from the cache. If the entry is not present, it creates a new entry.
-     * This method is not thread safe, it must be called from a synchronized method.
+     * Retrieves the entry from the cache. If the entry is not present, it creates a new entry,
+     * or waits for the thread which is already creating it.
      */
-    private CacheEntry cacheLocked(ComponentName componentName, LauncherActivityInfoCompat info,
-            HashMap<Object, CharSequence> labelCache, UserHandleCompat user,
-            boolean usePackageIcon, int unreadNum) {
-        CacheKey cacheKey = new CacheKey(componentName, user);
-        CacheEntry entry = mCache.get(cacheKey);
+    private CacheEntry getEntry(final ComponentName componentName,
+            final LauncherActivityInfoCompat info,
+            final HashMap<Object, CharSequence> labelCache, final UserHandleCompat user,
+            final boolean usePackageIcon) {
+        CacheEntry entry = getCachedEntry(componentName, user);
+        if (entry != null) {
+            return entry;
+        }
+        mMisses.incrementAndGet();
+        final CacheKey cacheKey = new CacheKey(componentName, user);
+
+        PendingEntry pending = mPendingEntries.get(cacheKey);
+        if (pending == null) {
+            PendingEntry created = new PendingEntry(new Callable<CacheEntry>() {
+                @Override
+                public CacheEntry call() {
+                    return createEntry(cacheKey, info, labelCache, usePackageIcon);
+                }
+            });
+            pending = mPendingEntries.putIfAbsent(cacheKey, created);
+            if (pending == null) {
+                pending = created;
+                created.run();
+                // Publish the entry, unless it was removed while we were rendering it.
+                entry = getPendingEntry(created);
+                putEntry(cacheKey, entry);
+                if (!mPendingEntries.remove(cacheKey, created)) {
+                    removeEntry(cacheKey, entry);
+                }
+            }
+        }
+        return getPendingEntry(pending);
+    }
 
+    /**
+     * Returns the cached entry for the component, or null. Allocates nothing.
+     */
+    private CacheEntry getCachedEntry(ComponentName componentName, UserHandleCompat user) {
+        CacheKey key = mLookupKey.get();
+        key.set(componentName, user);
+        CacheEntry entry = mCache.get(key);
+        key.set(null, null);
+        if (entry != null) {
+            entry.lastAccess = mAccessClock.incrementAndGet();
+            mHits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    private static CacheEntry getPendingEntry(PendingEntry pending) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return pending.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Creates a new entry for the cache. The entry is not added to the cache.
+     */
+    private CacheEntry createEntry(CacheKey cacheKey, LauncherActivityInfoCompat info,
+            HashMap<Object, CharSequence> labelCache, boolean usePackageIcon) {
+        final ComponentName componentName = cacheKey.componentName;
+        final UserHandleCompat user = cacheKey.user;
         boolean isCustomTitle = false;
         String activity = null;
         if (info != null) {
@@ -322,59 +593,62 @@ public class IconCache {
                 isCustomTitle = true;
             }
         }
-        if (entry == null || unreadNum >= 0) {
-            entry = new CacheEntry();
-
-            mCache.put(cacheKey, entry);
-
-            if (info != null) {
-                ComponentName labelKey = info.getComponentName();
-                if (labelCache != null && labelCache.containsKey(labelKey)) {
-                    if (isCustomTitle) {
-                        entry.title = ((LauncherApplication) mContext)
-                                .getStkAppName(activity);
-                    } else {
-                        entry.title = labelCache.get(labelKey).toString();
-                    }
+        CacheEntry entry = new CacheEntry();
+        if (info != null && getPersistedEntry(cacheKey, info, entry)) {
+            if (isCustomTitle) {
+                entry.title = ((LauncherApplication) mContext).getStkAppName(activity);
+            }
+            if (labelCache != null && !labelCache.containsKey(info.getComponentName())) {
+                labelCache.put(info.getComponentName(), entry.title);
+            }
+            entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
+        } else if (info != null) {
+            ComponentName labelKey = info.getComponentName();
+            if (labelCache != null && labelCache.containsKey(labelKey)) {
+                if (isCustomTitle) {
+                    entry.title = ((LauncherApplication) mContext)
+                            .getStkAppName(activity);
                 } else {
-                    if (isCustomTitle) {
-                        entry.title = ((LauncherApplication) mContext)
-                                .getStkAppName(activity);
-                    } else {
-                        entry.title = info.getLabel().toString();
-                    }
-                    if (labelCache != null) {
-                        labelCache.put(labelKey, entry.title);
-                    }
+                    entry.title = labelCache.get(labelKey).toString();
                 }
-
-                entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
-                entry.icon = Utilities.createIconBitmap(
-                        info.getBadgedIcon(mIconDpi), mContext, unreadNum);
             } else {
-                entry.title = "";
-                Bitmap preloaded = getPreloadedIcon(componentName, user);
-                if (preloaded != null) {
-                    if (DEBUG) Log.d(TAG, "using preloaded icon for " +
-                            componentName.toShortString());
-                    entry.icon = preloaded;
+                if (isCustomTitle) {
+                    entry.title = ((LauncherApplication) mContext)
+                            .getStkAppName(activity);
                 } else {
-                    if (usePackageIcon) {
-                        CacheEntry packageEntry = getEntryForPackage(
-                                componentName.getPackageName(), user);
-                        if (packageEntry != null) {
-                            if (DEBUG) Log.d(TAG, "using package default icon for " +
-                                    componentName.toShortString());
-                            entry.icon = packageEntry.icon;
-                            entry.title = packageEntry.title;
-                        }
-                    }
-                    if (entry.icon == null) {
-                        if (DEBUG) Log.d(TAG, "using default icon for " +
+                    entry.title = info.getLabel().toString();
+                }
+                if (labelCache != null) {
+                    labelCache.put(labelKey, entry.title);
+                }
+            }
+
+            entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
+            entry.icon = Utilities.createIconBitmap(info.getBadgedIcon(mIconDpi), mContext);
+            persistEntry(cacheKey, info, entry, isCustomTitle ? null : entry.title);
+        } else {
+            entry.title = "";
+            Bitmap preloaded = getPreloadedIcon(componentName, user);
+            if (preloaded != null) {
+                if (DEBUG) Log.d(TAG, "using preloaded icon for " +
+                        componentName.toShortString());
+                entry.icon = preloaded;
+            } else {
+                if (usePackageIcon) {
+                    CacheEntry packageEntry = getEntryForPackage(
+                            componentName.getPackageName(), user);
+                    if (packageEntry != null) {
+                        if (DEBUG) Log.d(TAG, "using package default icon for " +
                                 componentName.toShortString());
-                        entry.icon = getDefaultIcon(user);
+                        entry.icon = packageEntry.icon;
+                        entry.title = packageEntry.title;
                     }
                 }
+                if (entry.icon == null) {
+                    if (DEBUG) Log.d(TAG, "using default icon for " +
+                            componentName.toShortString());
+                    entry.icon = getDefaultIcon(user);
+                }
             }
         }
         return entry;
@@ -388,26 +662,24 @@ public class IconCache {
             Bitmap icon, CharSequence title) {
         remove(packageName, user);
 
-        CacheEntry entry = getEntryForPackage(packageName, user);
-        if (!TextUtils.isEmpty(title)) {
-            entry.title = title;
-        }
-        if (icon != null) {
-            entry.icon = Utilities.createIconBitmap(icon, mContext);
-        }
+        CacheEntry packageEntry = getEntryForPackage(packageName, user);
+        // Replace the entry rather than updating it, readers do not hold any lock.
+        CacheEntry entry = new CacheEntry();
+        entry.title = TextUtils.isEmpty(title) ? packageEntry.title : title;
+        entry.icon = icon != null ? Utilities.createIconBitmap(icon, mContext) : packageEntry.icon;
+        putEntry(new CacheKey(getPackageComponent(packageName), user), entry);
     }
 
     /**
      * Gets an entry for the package, which can be used as a fallback entry for various components.
      */
     private CacheEntry getEntryForPackage(String packageName, UserHandleCompat user) {
-        ComponentName cn = new ComponentName(packageName, EMPTY_CLASS_NAME);
-        CacheKey cacheKey = new CacheKey(cn, user);
-        CacheEntry entry = mCache.get(cacheKey);
+        ComponentName cn = getPackageComponent(packageName);
+        CacheEntry entry = getCachedEntry(cn, user);
         if (entry == null) {
+            CacheKey cacheKey = new CacheKey(cn, user);
             entry = new CacheEntry();
             entry.title = "";
-            mCache.put(cacheKey, entry);
 
             try {
                 ApplicationInfo info = mPackageManager.getApplicationInfo(packageName, 0);
@@ -420,15 +692,466 @@ public class IconCache {
             if (entry.icon == null) {
                 entry.icon = getPreloadedIcon(cn, user);
             }
+
+            // Another thread may have created the same entry meanwhile, keep only one of them.
+            CacheEntry existing = mCache.putIfAbsent(cacheKey, entry);
+            if (existing != null) {
+                entry = existing;
+            } else {
+                entry.lastAccess = mAccessClock.incrementAndGet();
+                mCacheBytes.addAndGet(getByteCount(entry));
+                trimToBudget();
+            }
         }
         return entry;
     }
 
-    public synchronized HashMap<ComponentName,Bitmap> getAllIcons() {
+    private ComponentName getPackageComponent(String packageName) {
+        ComponentName cn = mPackageComponents.get(packageName);
+        if (cn == null) {
+            ComponentName created = new ComponentName(packageName, EMPTY_CLASS_NAME);
+            cn = mPackageComponents.putIfAbsent(packageName, created);
+            if (cn == null) {
+                cn = created;
+            }
+        }
+        return cn;
+    }
+
+    private void putEntry(CacheKey cacheKey, CacheEntry entry) {
+        entry.lastAccess = mAccessClock.incrementAndGet();
+        CacheEntry old = mCache.put(cacheKey, entry);
+        mCacheBytes.addAndGet(getByteCount(entry) - getByteCount(old));
+        trimToBudget();
+    }
+
+    private void removeEntry(CacheKey cacheKey) {
+        mCacheBytes.addAndGet(-getByteCount(mCache.remove(cacheKey)));
+    }
+
+    private void removeEntry(CacheKey cacheKey, CacheEntry entry) {
+        if (mCache.remove(cacheKey, entry)) {
+            mCacheBytes.addAndGet(-getByteCount(entry));
+        }
+    }
+
+    private static int getByteCount(CacheEntry entry) {
+        return entry != null && entry.icon != null ? entry.icon.getByteCount() : 0;
+    }
+
+    /**
+     * Evicts the least recently used entries which are not pinned, until those are back under
+     * 3/4 of the budget. Does nothing if the cache has not grown past mTrimThreshold.
+     */
+    private void trimToBudget() {
+        if (mCacheBytes.get() <= mTrimThreshold) {
+            return;
+        }
+        synchronized (mTrimLock) {
+            if (mCacheBytes.get() <= mTrimThreshold) {
+                return;
+            }
+            final HashSet<CacheKey> pinned = mPinnedKeys;
+            final HashSet<CacheKey> pinnedApps = mPinnedAppKeys;
+            ArrayList<Entry<CacheKey, CacheEntry>> candidates =
+                    new ArrayList<Entry<CacheKey, CacheEntry>>(mCache.size());
+            long pinnedBytes = 0;
+            for (Entry<CacheKey, CacheEntry> e : mCache.entrySet()) {
+                if (pinned.contains(e.getKey()) || pinnedApps.contains(e.getKey())) {
+                    pinnedBytes += getByteCount(e.getValue());
+                } else {
+                    candidates.add(e);
+                }
+            }
+            mTrimThreshold = pinnedBytes + mMaxBytes;
+            if (mCacheBytes.get() <= mTrimThreshold) {
+                return;
+            }
+            Collections.sort(candidates, new Comparator<Entry<CacheKey, CacheEntry>>() {
+                @Override
+                public int compare(Entry<CacheKey, CacheEntry> lhs,
+                        Entry<CacheKey, CacheEntry> rhs) {
+                    long l = lhs.getValue().lastAccess;
+                    long r = rhs.getValue().lastAccess;
+                    return l < r ? -1 : (l == r ? 0 : 1);
+                }
+            });
+
+            final long target = pinnedBytes + mMaxBytes * 3 / 4;
+            for (Entry<CacheKey, CacheEntry> e : candidates) {
+                if (mCacheBytes.get() <= target) {
+                    break;
+                }
+                if (mCache.remove(e.getKey(), e.getValue())) {
+                    mCacheBytes.addAndGet(-getByteCount(e.getValue()));
+                    mEvictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Pins the entries used by the supplied workspace and hotseat items, including the contents
+     * of folders, so that they are never evicted. Replaces the previously pinned items.
+     */
+    public void setPinnedItems(ArrayList<ItemInfo> items) {
+        HashSet<CacheKey> pinned = new HashSet<CacheKey>();
+        for (ItemInfo item : items) {
+            addPinnedKeys(pinned, item);
+        }
+        synchronized (mTrimLock) {
+            mPinnedKeys = pinned;
+            // The pinned entries may be fewer, the next trim works out the threshold again
+            mTrimThreshold = mMaxBytes;
+        }
+    }
+
+    /**
+     * Pins the entry used by an item added to the workspace, the hotseat or a folder, on top of
+     * the items pinned by {@link #setPinnedItems}.
+     */
+    public void addPinnedItem(ItemInfo item) {
+        synchronized (mTrimLock) {
+            HashSet<CacheKey> pinned = new HashSet<CacheKey>(mPinnedKeys);
+            addPinnedKeys(pinned, item);
+            mPinnedKeys = pinned;
+        }
+    }
+
+    /**
+     * Pins the entries used by all apps, so that they are never evicted. Replaces the previously
+     * pinned apps.
+     */
+    public void setPinnedApps(ArrayList<AppInfo> apps) {
+        HashSet<CacheKey> pinned = new HashSet<CacheKey>(apps.size());
+        for (AppInfo app : apps) {
+            pinned.add(new CacheKey(app.componentName, app.user));
+        }
+        synchronized (mTrimLock) {
+            mPinnedAppKeys = pinned;
+            mTrimThreshold = mMaxBytes;
+        }
+    }
+
+    private static void addPinnedKeys(HashSet<CacheKey> pinned, ItemInfo item) {
+        if (item instanceof ShortcutInfo) {
+            addPinnedKey(pinned, (ShortcutInfo) item);
+        } else if (item instanceof FolderInfo) {
+            for (ShortcutInfo info : ((FolderInfo) item).contents) {
+                addPinnedKey(pinned, info);
+            }
+        }
+    }
+
+    private static void addPinnedKey(HashSet<CacheKey> pinned, ShortcutInfo info) {
+        ComponentName cn = info.getTargetComponent();
+        if (cn != null && info.user != null) {
+            pinned.add(new CacheKey(cn, info.user));
+        }
+    }
+
+    public void dumpState() {
+        Log.d(TAG, "mCache size=" + mCache.size() + " bytes=" + mCacheBytes.get()
+                + " maxBytes=" + mMaxBytes + " pinned=" + mPinnedKeys.size()
+                + " pinnedApps=" + mPinnedAppKeys.size());
+        Log.d(TAG, "mCache hits=" + mHits.get() + " misses=" + mMisses.get()
+                + " evictions=" + mEvictions.get());
+    }
+
+    /**
+     * Reads every row of the persistent cache which was rendered for the current system state
+     * (locale, icon density and icon size) in a single query. Rows rendered for a different
+     * state are dropped. Entries are validated against the package state lazily, when they are
+     * first requested through {@link #getTitleAndIcon}.
+     */
+    public void preloadPersistedEntries() {
+        // Left over by a load which was stopped
+        writePendingRows();
+        synchronized (mPersistLock) {
+            preloadPersistedEntriesLocked();
+        }
+    }
+
+    private void preloadPersistedEntriesLocked() {
+        mDeferWrites = true;
+        mPersistedEntries.clear();
+        mPackageInfos.clear();
+
+        final String systemState = getSystemState();
+        Cursor c = null;
+        try {
+            SQLiteDatabase db = mIconDb.getWritableDatabase();
+            db.delete(IconDB.TABLE_NAME, IconDB.COLUMN_SYSTEM_STATE + " != ?",
+                    new String[] { systemState });
+            c = db.query(IconDB.TABLE_NAME, new String[] {
+                    IconDB.COLUMN_COMPONENT, IconDB.COLUMN_USER, IconDB.COLUMN_LAST_UPDATED,
+                    IconDB.COLUMN_VERSION, IconDB.COLUMN_ICON, IconDB.COLUMN_LABEL },
+                    null, null, null, null, null);
+
+            HashMap<Long, UserHandleCompat> users = new HashMap<Long, UserHandleCompat>();
+            while (c.moveToNext()) {
+                ComponentName cn = ComponentName.unflattenFromString(c.getString(0));
+                long serial = c.getLong(1);
+                UserHandleCompat user = users.get(serial);
+                if (user == null && !users.containsKey(serial)) {
+                    user = mUserManager.getUserForSerialNumber(serial);
+                    users.put(serial, user);
+                }
+                if (cn == null || user == null) {
+                    continue;
+                }
+                PersistedEntry entry = new PersistedEntry();
+                entry.lastUpdateTime = c.getLong(2);
+                entry.versionCode = c.getInt(3);
+                entry.icon = c.getBlob(4);
+                entry.title = c.getString(5);
+                mPersistedEntries.put(new CacheKey(cn, user), entry);
+            }
+        } catch (SQLiteException e) {
+            Log.w(TAG, "failed to read the icon database", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        if (DEBUG) Log.d(TAG, "preloaded " + mPersistedEntries.size() + " persisted icons");
+    }
+
+    /**
+     * Fills "labelCache" with the persisted labels of the supplied activities whose package has
+     * not changed since they were persisted, so that sorting does not need to load them.
+     */
+    public void getPersistedLabels(List<LauncherActivityInfoCompat> apps,
+            HashMap<Object, CharSequence> labelCache) {
+        for (LauncherActivityInfoCompat info : apps) {
+            ComponentName cn = info.getComponentName();
+            if (labelCache.containsKey(cn)) {
+                continue;
+            }
+            PackageInfo packageInfo = getPackageInfo(cn.getPackageName());
+            synchronized (mPersistLock) {
+                PersistedEntry persisted =
+                        mPersistedEntries.get(new CacheKey(cn, info.getUser()));
+                if (persisted != null && persisted.title != null
+                        && isPersistedEntryValid(persisted, packageInfo)) {
+                    labelCache.put(cn, persisted.title);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the rows rendered since {@link #preloadPersistedEntries}, and removes the persisted
+     * rows which were not used since then and whose component is not among "apps", the apps
+     * which were just loaded. These belong to components which no longer exist. The rows of
+     * loaded apps can be unused because their entry was still in the memory cache.
+     */
+    public void prunePersistedEntries(ArrayList<AppInfo> apps) {
+        HashSet<CacheKey> loaded = new HashSet<CacheKey>(apps.size());
+        for (AppInfo app : apps) {
+            loaded.add(new CacheKey(app.componentName, app.user));
+        }
+        ArrayList<CacheKey> unused;
+        synchronized (mPersistLock) {
+            mDeferWrites = false;
+            mPersistedEntries.keySet().removeAll(loaded);
+            unused = new ArrayList<CacheKey>(mPersistedEntries.keySet());
+            mPersistedEntries.clear();
+            mPackageInfos.clear();
+        }
+
+        synchronized (mWriteLock) {
+            if (!unused.isEmpty()) {
+                try {
+                    SQLiteDatabase db = mIconDb.getWritableDatabase();
+                    db.beginTransaction();
+                    try {
+                        for (CacheKey key : unused) {
+                            db.delete(IconDB.TABLE_NAME, IconDB.COLUMN_COMPONENT + " = ? AND "
+                                    + IconDB.COLUMN_USER + " = ?", new String[] {
+                                    key.componentName.flattenToString(),
+                                    Long.toString(mUserManager.getSerialNumberForUser(key.user))
+                            });
+                        }
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                } catch (SQLiteException e) {
+                    Log.w(TAG, "failed to prune the icon database", e);
+                }
+                if (DEBUG) Log.d(TAG, "pruned " + unused.size() + " persisted icons");
+            }
+            writePendingRows();
+        }
+    }
+
+    /**
+     * Fills "entry" from the persistent cache if the package of "info" is unchanged since the
+     * entry was persisted.
+     */
+    private boolean getPersistedEntry(CacheKey cacheKey, LauncherActivityInfoCompat info,
+            CacheEntry entry) {
+        PackageInfo packageInfo = getPackageInfo(info.getComponentName().getPackageName());
+        final byte[] blob;
+        synchronized (mPersistLock) {
+            PersistedEntry persisted = mPersistedEntries.remove(cacheKey);
+            if (persisted == null || persisted.icon == null
+                    || !isPersistedEntryValid(persisted, packageInfo)) {
+                return false;
+            }
+            blob = persisted.icon;
+            entry.title = persisted.title;
+        }
+        // Decode outside of the lock, other threads may be rendering their own entries.
+        Bitmap icon = BitmapFactory.decodeByteArray(blob, 0, blob.length);
+        if (icon == null) {
+            entry.title = null;
+            return false;
+        }
+        entry.icon = icon;
+        if (entry.title == null) {
+            entry.title = info.getLabel().toString();
+        }
+        return true;
+    }
+
+    private static boolean isPersistedEntryValid(PersistedEntry persisted,
+            PackageInfo packageInfo) {
+        return packageInfo != null && packageInfo.lastUpdateTime == persisted.lastUpdateTime
+                && packageInfo.versionCode == persisted.versionCode;
+    }
+
+    /**
+     * Returns the package info, memoized until the end of the load. The package manager is
+     * called outside of mPersistLock, so other threads rendering entries do not wait on it.
+     */
+    private PackageInfo getPackageInfo(String packageName) {
+        synchronized (mPersistLock) {
+            if (mPackageInfos.containsKey(packageName)) {
+                return mPackageInfos.get(packageName);
+            }
+        }
+        PackageInfo info = null;
+        try {
+            info = mPackageManager.getPackageInfo(packageName,
+                    PackageManager.GET_UNINSTALLED_PACKAGES);
+        } catch (NameNotFoundException e) {
+            if (DEBUG) Log.d(TAG, "Package not found " + packageName);
+        }
+        synchronized (mPersistLock) {
+            mPackageInfos.put(packageName, info);
+        }
+        return info;
+    }
+
+    /**
+     * Queues a freshly rendered entry to be written to the persistent cache. The icon is
+     * compressed by the calling thread, and the rows are written on the worker thread.
+     */
+    private void persistEntry(CacheKey cacheKey, LauncherActivityInfoCompat info,
+            CacheEntry entry, CharSequence label) {
+        PackageInfo packageInfo = getPackageInfo(info.getComponentName().getPackageName());
+        if (packageInfo == null || entry.icon == null) {
+            return;
+        }
+        byte[] icon = ItemInfo.flattenBitmap(entry.icon);
+        if (icon == null) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(IconDB.COLUMN_COMPONENT, cacheKey.componentName.flattenToString());
+        values.put(IconDB.COLUMN_USER, mUserManager.getSerialNumberForUser(cacheKey.user));
+        values.put(IconDB.COLUMN_LAST_UPDATED, packageInfo.lastUpdateTime);
+        values.put(IconDB.COLUMN_VERSION, packageInfo.versionCode);
+        values.put(IconDB.COLUMN_ICON, icon);
+        if (label != null) {
+            values.put(IconDB.COLUMN_LABEL, label.toString());
+        }
+        values.put(IconDB.COLUMN_SYSTEM_STATE, getSystemState());
+
+        synchronized (mPersistLock) {
+            mPendingRows.add(values);
+            if (!mWriteScheduled
+                    && (!mDeferWrites || mPendingRows.size() >= MAX_PENDING_ROWS)) {
+                mWriteScheduled = true;
+                LauncherModel.postOnWorkerThread(mWritePendingRowsRunnable);
+            }
+        }
+    }
+
+    /**
+     * Writes the rows queued by {@link #persistEntry} in a single transaction.
+     */
+    private void writePendingRows() {
+        synchronized (mWriteLock) {
+            ArrayList<ContentValues> rows;
+            synchronized (mPersistLock) {
+                mWriteScheduled = false;
+                if (mPendingRows.isEmpty()) {
+                    return;
+                }
+                rows = new ArrayList<ContentValues>(mPendingRows);
+                mPendingRows.clear();
+            }
+            try {
+                SQLiteDatabase db = mIconDb.getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    for (ContentValues values : rows) {
+                        db.insertWithOnConflict(IconDB.TABLE_NAME, null, values,
+                                SQLiteDatabase.CONFLICT_REPLACE);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            } catch (SQLiteException e) {
+                Log.w(TAG, "failed to persist " + rows.size() + " icons", e);
+            }
+            if (DEBUG) Log.d(TAG, "persisted " + rows.size() + " icons");
+        }
+    }
+
+    /**
+     * Removes the persisted rows of the package, including those still waiting to be written.
+     */
+    private void removePersistedPackage(String packageName, UserHandleCompat user) {
+        String prefix = packageName + "/";
+        long serial = mUserManager.getSerialNumberForUser(user);
+        synchronized (mWriteLock) {
+            synchronized (mPersistLock) {
+                mPackageInfos.remove(packageName);
+                Iterator<ContentValues> rows = mPendingRows.iterator();
+                while (rows.hasNext()) {
+                    ContentValues values = rows.next();
+                    if (values.getAsString(IconDB.COLUMN_COMPONENT).startsWith(prefix)
+                            && values.getAsLong(IconDB.COLUMN_USER) == serial) {
+                        rows.remove();
+                    }
+                }
+            }
+            try {
+                // An exact prefix, LIKE would treat '_' as a wildcard and ignore the case
+                mIconDb.getWritableDatabase().delete(IconDB.TABLE_NAME,
+                        "substr(" + IconDB.COLUMN_COMPONENT + ", 1, " + prefix.length()
+                        + ") = ? AND " + IconDB.COLUMN_USER + " = ?",
+                        new String[] { prefix, Long.toString(serial) });
+            } catch (SQLiteException e) {
+                Log.w(TAG, "failed to remove persisted icons for " + packageName, e);
+            }
+        }
+    }
+
+    private String getSystemState() {
+        return Locale.getDefault().toString() + "," + mIconDpi + ","
+                + Utilities.getIconBitmapSize(mContext);
+    }
+
+    public HashMap<ComponentName,Bitmap> getAllIcons() {
         HashMap<ComponentName,Bitmap> set = new HashMap<ComponentName,Bitmap>();
-        for (CacheKey ck : mCache.keySet()) {
-            final CacheEntry e = mCache.get(ck);
-            set.put(ck.componentName, e.icon);
+        for (Entry<CacheKey, CacheEntry> e : mCache.entrySet()) {
+            set.put(e.getKey().componentName, e.getValue().icon);
         }
         return set;
     }
@@ -456,31 +1179,11 @@ public class IconCache {
             // pass
         }
 
-        final String key = componentName.flattenToString();
-        FileOutputStream resourceFile = null;
-        try {
-            resourceFile = context.openFileOutput(getResourceFilename(componentName),
-                    Context.MODE_PRIVATE);
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            if (icon.compress(android.graphics.Bitmap.CompressFormat.PNG, 75, os)) {
-                byte[] buffer = os.toByteArray();
-                resourceFile.write(buffer, 0, buffer.length);
-            } else {
-                Log.w(TAG, "failed to encode cache for " + key);
-                return;
-            }
-        } catch (FileNotFoundException e) {
-            Log.w(TAG, "failed to pre-load cache for " + key, e);
-        } catch (IOException e) {
-            Log.w(TAG, "failed to pre-load cache for " + key, e);
-        } finally {
-            if (resourceFile != null) {
-                try {
-                    resourceFile.close();
-                } catch (IOException e) {
-                    Log.d(TAG, "failed to save restored icon for: " + key, e);
-                }
-            }
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        if (icon.compress(android.graphics.Bitmap.CompressFormat.PNG, 75, os)) {
+            PreloadedIconStore.getInstance(context).put(componentName, os.toByteArray());
+        } else {
+            Log.w(TAG, "failed to encode cache for " + componentName.flattenToString());
         }
     }
 
@@ -491,45 +1194,14 @@ public class IconCache {
      * @returns a bitmap if one is cached, or null.
      */
     private Bitmap getPreloadedIcon(ComponentName componentName, UserHandleCompat user) {
-        final String key = componentName.flattenToShortString();
-
         // We don't keep icons for other profiles in persistent cache.
         if (!user.equals(UserHandleCompat.myUserHandle())) {
             return null;
         }
 
-        if (DEBUG) Log.v(TAG, "looking for pre-load icon for " + key);
-        Bitmap icon = null;
-        FileInputStream resourceFile = null;
-        try {
-            resourceFile = mContext.openFileInput(getResourceFilename(componentName));
-            byte[] buffer = new byte[1024];
-            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-            int bytesRead = 0;
-            while(bytesRead >= 0) {
-                bytes.write(buffer, 0, bytesRead);
-                bytesRead = resourceFile.read(buffer, 0, buffer.length);
-            }
-            if (DEBUG) Log.d(TAG, "read " + bytes.size());
-            icon = BitmapFactory.decodeByteArray(bytes.toByteArray(), 0, bytes.size());
-            if (icon == null) {
-                Log.w(TAG, "failed to decode pre-load icon for " + key);
-            }
-        } catch (FileNotFoundException e) {
-            if (DEBUG) Log.d(TAG, "there is no restored icon for: " + key);
-        } catch (IOException e) {
-            Log.w(TAG, "failed to read pre-load icon for: " + key, e);
-        } finally {
-            if(resourceFile != null) {
-                try {
-                    resourceFile.close();
-                } catch (IOException e) {
-                    Log.d(TAG, "failed to manage pre-load icon file: " + key, e);
-                }
-            }
-        }
-
-        return icon;
+        if (DEBUG) Log.v(TAG, "looking for pre-load icon for "
+                + componentName.flattenToShortString());
+        return PreloadedIconStore.getInstance(mContext).get(componentName);
     }
 
     /**
@@ -543,14 +1215,55 @@ public class IconCache {
             return;
         }
         remove(componentName, user);
-        boolean success = mContext.deleteFile(getResourceFilename(componentName));
-        if (DEBUG && success) Log.d(TAG, "removed pre-loaded icon from persistent cache");
-
+        PreloadedIconStore.getInstance(mContext).remove(componentName);
     }
 
-    private static String getResourceFilename(ComponentName component) {
-        String resourceName = component.flattenToShortString();
-        String filename = resourceName.replace(File.separatorChar, '_');
-        return RESOURCE_FILE_PREFIX + filename;
+    /**
+     * Persistent store of rendered icons and labels, keyed by component and user, so that the
+     * loader does not need to render every icon on a cold start.
+     */
+    private static final class IconDB extends SQLiteOpenHelper {
+        private final static int DB_VERSION = 1;
+
+        private final static String TABLE_NAME = "icons";
+        private final static String COLUMN_COMPONENT = "componentName";
+        private final static String COLUMN_USER = "profileId";
+        private final static String COLUMN_LAST_UPDATED = "lastUpdated";
+        private final static String COLUMN_VERSION = "version";
+        private final static String COLUMN_ICON = "icon";
+        private final static String COLUMN_LABEL = "label";
+        private final static String COLUMN_SYSTEM_STATE = "system_state";
+
+        public IconDB(Context context, String name) {
+            super(context, new File(context.getCacheDir(), name).getPath(), null, DB_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                    COLUMN_COMPONENT + " TEXT NOT NULL, " +
+                    COLUMN_USER + " INTEGER NOT NULL, " +
+                    COLUMN_LAST_UPDATED + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_ICON + " BLOB, " +
+                    COLUMN_LABEL + " TEXT, " +
+                    COLUMN_SYSTEM_STATE + " TEXT, " +
+                    "PRIMARY KEY (" + COLUMN_COMPONENT + ", " + COLUMN_USER + ") " +
+                    ");");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            if (oldVersion != newVersion) {
+                // This is a cache, it will be repopulated
+                db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+                onCreate(db);
+            }
+        }
+
+        @Override
+        public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            onUpgrade(db, oldVersion, newVersion);
+        }
     }
 }
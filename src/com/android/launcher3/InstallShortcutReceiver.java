@@ -182,6 +182,7 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
         if (!installQueue.isEmpty()) {
             Iterator<PendingInstallShortcutInfo> iter = installQueue.iterator();
             ArrayList<ItemInfo> addShortcuts = new ArrayList<ItemInfo>();
+            LauncherModel.ShortcutKeys existingShortcuts = LauncherModel.loadShortcutKeys(context);
             while (iter.hasNext()) {
                 final PendingInstallShortcutInfo pendingInfo = iter.next();
                 final Intent intent = pendingInfo.launchIntent;
@@ -201,7 +202,7 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
                     }
                 }
 
-                final boolean exists = LauncherModel.shortcutExists(context, pendingInfo.label,
+                final boolean exists = existingShortcuts.contains(pendingInfo.label,
                         intent, pendingInfo.user);
                 if (!exists) {
                     // Generate a shortcut info to add into the model
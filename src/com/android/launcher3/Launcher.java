@@ -77,9 +77,11 @@ import android.os.UserHandle;
 import android.preference.PreferenceManager;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
 import android.text.Selection;
 import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.text.method.TextKeyListener;
 import android.util.Log;
 import android.util.Pair;
@@ -106,6 +108,7 @@ import android.view.animation.DecelerateInterpolator;
 import android.view.animation.OvershootInterpolator;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.Advanceable;
+import android.widget.EditText;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.PopupMenu;
@@ -318,6 +321,7 @@ public class Launcher extends Activity
     protected RecyclerView mAppDrawer;
     private AppDrawerListAdapter mAppDrawerAdapter;
     private AppDrawerScrubber mScrubber;
+    private EditText mAppDrawerSearch;
 
     protected SearchDropTargetBar mSearchDropTargetBar;
     private AppsCustomizeTabHost mAppsCustomizeTabHost;
@@ -343,7 +347,7 @@ public class Launcher extends Activity
     private boolean mWaitingForResult;
     private boolean mOnResumeNeedsLoad;
 
-    private ArrayList<Runnable> mBindOnResumeCallbacks = new ArrayList<Runnable>();
+    private final BindOnResumeQueue mBindOnResumeCallbacks = new BindOnResumeQueue();
     private ArrayList<Runnable> mOnResumeCallbacks = new ArrayList<Runnable>();
 
     private Bundle mSavedInstanceState;
@@ -1151,7 +1155,7 @@ public class Launcher extends Activity
             mRestoring = false;
             mOnResumeNeedsLoad = false;
         }
-        if (mBindOnResumeCallbacks.size() > 0) {
+        if (!mBindOnResumeCallbacks.isEmpty()) {
             // We might have postponed some bind calls until onResume (see waitUntilResume) --
             // execute them here
             long startTimeCallbacks = 0;
@@ -1162,13 +1166,10 @@ public class Launcher extends Activity
             if (mAppsCustomizeContent != null) {
                 mAppsCustomizeContent.setBulkBind(true);
             }
-            for (int i = 0; i < mBindOnResumeCallbacks.size(); i++) {
-                mBindOnResumeCallbacks.get(i).run();
-            }
+            mBindOnResumeCallbacks.run();
             if (mAppsCustomizeContent != null) {
                 mAppsCustomizeContent.setBulkBind(false);
             }
-            mBindOnResumeCallbacks.clear();
             if (DEBUG_RESUME_TIME) {
                 Log.d(TAG, "Time spent processing callbacks in onResume: " +
                         (System.currentTimeMillis() - startTimeCallbacks));
@@ -1250,6 +1251,8 @@ public class Launcher extends Activity
         // Ensure that items added to Launcher are queued until Launcher returns
         InstallShortcutReceiver.enableInstallQueue();
         PackageInstallerCompat.getInstance(this).onPause();
+        // Write the queued item moves now, in case the process gets killed in the background
+        LauncherModel.flushItemUpdates();
 
         super.onPause();
         mPaused = true;
@@ -1795,6 +1798,45 @@ public class Launcher extends Activity
                 }
             });
             initializeScrubber();
+            initializeAppDrawerSearch();
+        }
+    }
+
+    private void initializeAppDrawerSearch() {
+        FrameLayout view = (FrameLayout) findViewById(R.id.app_drawer_container);
+        mAppDrawerSearch = (EditText) view.findViewById(R.id.app_drawer_search);
+        mAppDrawerSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                mAppDrawerAdapter.setSearchQuery(s.toString());
+                mAppDrawer.scrollToPosition(0);
+            }
+        });
+    }
+
+    /**
+     * Clears the app drawer search, and hides the keyboard if it was typed into.
+     */
+    private void clearAppDrawerSearch() {
+        if (mAppDrawerSearch == null) {
+            return;
+        }
+        if (mAppDrawerSearch.length() > 0) {
+            mAppDrawerSearch.setText("");
+        }
+        if (mAppDrawerSearch.hasFocus()) {
+            mAppDrawerSearch.clearFocus();
+            InputMethodManager inputManager = (InputMethodManager)
+                    getSystemService(Context.INPUT_METHOD_SERVICE);
+            inputManager.hideSoftInputFromWindow(mAppDrawerSearch.getWindowToken(), 0);
         }
     }
 
@@ -4442,6 +4484,7 @@ public class Launcher extends Activity
             }
             mWorkspace.setVisibility(View.VISIBLE);
             hideAppsCustomizeHelper(Workspace.State.NORMAL, animated, false, onCompleteRunnable);
+            clearAppDrawerSearch();
 
             // Show the search bar (only animate if we were showing the drop target bar in spring
             // loaded mode)
@@ -4691,10 +4734,10 @@ public class Launcher extends Activity
         if (mPaused) {
             Log.i(TAG, "Deferring update until onResume");
             if (deletePreviousRunnables) {
-                while (mBindOnResumeCallbacks.remove(run)) {
-                }
+                mBindOnResumeCallbacks.add(run, run);
+            } else {
+                mBindOnResumeCallbacks.add(run);
             }
-            mBindOnResumeCallbacks.add(run);
             return true;
         } else {
             return false;
@@ -4705,6 +4748,27 @@ public class Launcher extends Activity
         return waitUntilResume(run, false);
     }
 
+    /**
+     * Same as {@link #waitUntilResume(Runnable)} for a bind of apps, which is postponed app by
+     * app: only the last pending bind of every app by the binder is run on resume.
+     */
+    private boolean waitUntilResume(BindOnResumeQueue.ItemsBinder<AppInfo> binder,
+            ArrayList<AppInfo> apps) {
+        if (mPaused) {
+            Log.i(TAG, "Deferring update until onResume");
+            for (AppInfo app : apps) {
+                mBindOnResumeCallbacks.addItem(binder, getBindKey(app), app);
+            }
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private static Object getBindKey(AppInfo app) {
+        return Pair.create(app.componentName, app.user);
+    }
+
     public void addOnResumeCallback(Runnable run) {
         mOnResumeCallbacks.add(run);
     }
@@ -5283,18 +5347,29 @@ public class Launcher extends Activity
         }
     }
 
+    private final BindOnResumeQueue.ItemsBinder<AppInfo> mBindAppsUpdatedBinder =
+            new BindOnResumeQueue.ItemsBinder<AppInfo>() {
+                @Override
+                public void bindItems(ArrayList<AppInfo> apps) {
+                    bindAppsUpdated(apps);
+                }
+            };
+
+    private final BindOnResumeQueue.ItemsBinder<AppInfo> mBindAppsBadgeChangedBinder =
+            new BindOnResumeQueue.ItemsBinder<AppInfo>() {
+                @Override
+                public void bindItems(ArrayList<AppInfo> apps) {
+                    bindAppsBadgeChanged(apps);
+                }
+            };
+
     /**
      * A package was updated.
      *
      * Implementation of the method from LauncherModel.Callbacks.
      */
     public void bindAppsUpdated(final ArrayList<AppInfo> apps) {
-        Runnable r = new Runnable() {
-            public void run() {
-                bindAppsUpdated(apps);
-            }
-        };
-        if (waitUntilResume(r)) {
+        if (waitUntilResume(mBindAppsUpdatedBinder, apps)) {
             return;
         }
 
@@ -5305,6 +5380,23 @@ public class Launcher extends Activity
         }
     }
 
+    /**
+     * The unread count of some apps changed.
+     *
+     * Implementation of the method from LauncherModel.Callbacks.
+     */
+    public void bindAppsBadgeChanged(final ArrayList<AppInfo> apps) {
+        if (waitUntilResume(mBindAppsBadgeChangedBinder, apps)) {
+            return;
+        }
+
+        if (!LauncherAppState.isDisableAllApps() &&
+                mAppsCustomizeContent != null) {
+            mAppsCustomizeContent.updateAppBadges(apps);
+            mAppDrawerAdapter.updateAppBadges(apps);
+        }
+    }
+
     /**
      * Packages were restored
      */
@@ -5406,6 +5498,13 @@ public class Launcher extends Activity
                 bindComponentsRemoved(packageNames, appInfos, user, reason);
             }
         };
+        if (mPaused) {
+            // The pending updates of the removed apps would be undone by the removal
+            for (AppInfo info : appInfos) {
+                mBindOnResumeCallbacks.removeItem(mBindAppsUpdatedBinder, getBindKey(info));
+                mBindOnResumeCallbacks.removeItem(mBindAppsBadgeChangedBinder, getBindKey(info));
+            }
+        }
         if (waitUntilResume(r)) {
             return;
         }
@@ -5763,6 +5862,7 @@ public class Launcher extends Activity
         Log.d(TAG, "mWaitingForResult=" + mWaitingForResult);
         Log.d(TAG, "mSavedInstanceState=" + mSavedInstanceState);
         Log.d(TAG, "sFolders.size=" + sFolders.size());
+        mBindOnResumeCallbacks.dumpState();
         mModel.dumpState();
 
         if (mAppsCustomizeContent != null) {
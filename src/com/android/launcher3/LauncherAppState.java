@@ -152,9 +152,9 @@ public class LauncherAppState implements DeviceProfile.DeviceProfileCallbacks {
     private final ContentObserver mFavoritesObserver = new ContentObserver(new Handler()) {
         @Override
         public void onChange(boolean selfChange) {
-            // If the database has ever changed, then we really need to force a reload of the
-            // workspace on the next load
-            mModel.resetLoadedState(false, true);
+            // If the database has ever changed, then we really need to reload the changed
+            // favorites on the next load
+            mModel.resetWorkspaceForChangedFavorites();
             mModel.startLoaderFromBackground();
         }
     };
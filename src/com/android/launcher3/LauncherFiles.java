@@ -14,11 +14,13 @@ public class LauncherFiles {
 
     private static final String XML = ".xml";
 
+    public static final String APP_ICONS_DB = "app_icons.db";
     public static final String DEFAULT_WALLPAPER_THUMBNAIL = "default_thumb2.jpg";
     public static final String DEFAULT_WALLPAPER_THUMBNAIL_OLD = "default_thumb.jpg";
     public static final String LAUNCHER_DB = "launcher.db";
     public static final String LAUNCHER_PREFERENCES = "launcher.preferences";
     public static final String LAUNCHES_LOG = "launches.log";
+    public static final String PRELOADED_ICONS = "preloaded_icons.pack";
     public static final String SHARED_PREFERENCES_KEY = "com.android.launcher3.prefs";
     public static final String STATS_LOG = "stats.log";
     public static final String WALLPAPER_CROP_PREFERENCES_KEY =
@@ -27,11 +29,13 @@ public class LauncherFiles {
     public static final String WIDGET_PREVIEWS_DB = "widgetpreviews.db";
 
     public static final List<String> ALL_FILES = Collections.unmodifiableList(Arrays.asList(
+            APP_ICONS_DB,
             DEFAULT_WALLPAPER_THUMBNAIL,
             DEFAULT_WALLPAPER_THUMBNAIL_OLD,
             LAUNCHER_DB,
             LAUNCHER_PREFERENCES,
             LAUNCHES_LOG,
+            PRELOADED_ICONS,
             SHARED_PREFERENCES_KEY + XML,
             STATS_LOG,
             WALLPAPER_CROP_PREFERENCES_KEY + XML,
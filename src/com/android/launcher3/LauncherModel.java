@@ -51,7 +51,9 @@ import android.provider.BaseColumns;
 import android.provider.Settings;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.util.Pair;
+import android.view.WindowManager;
 
 import com.android.launcher3.compat.AppWidgetManagerCompat;
 import com.android.launcher3.compat.LauncherActivityInfoCompat;
@@ -66,6 +68,7 @@ import com.android.launcher3.stats.internal.service.AggregationIntentService;
 import java.lang.ref.WeakReference;
 import java.net.URISyntaxException;
 import java.security.InvalidParameterException;
+import java.text.CollationKey;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -75,10 +78,20 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Maintains in-memory state of the Launcher. It is expected that there should be only one
@@ -103,7 +116,11 @@ public class LauncherModel extends BroadcastReceiver
     public static final int LOADER_FLAG_MIGRATE_SHORTCUTS = 1 << 1;
     public static final int LOADER_FLAG_RESIZE_GRID = 1 << 2;
 
-    private static final int ITEMS_CHUNK = 6; // batch size for the workspace icons
+    // Time of each frame which can be spent binding workspace icons, the rest is left for
+    // layout and drawing.
+    private static final long BIND_FRAME_BUDGET_NANOS = 8000000;
+    // Running estimate of the time it takes to bind one workspace icon. Main thread only.
+    private static long sBindItemCostNanos = 1000000;
     private static final long INVALID_SCREEN_ID = -1L;
 
     private final boolean mAppsCanBeOnRemoveableStorage;
@@ -134,11 +151,37 @@ public class LauncherModel extends BroadcastReceiver
     }
     private static final Handler sWorker = new Handler(sWorkerThread.getLooper());
 
+    // Small pool used by the loader to build the icons and labels of all apps in parallel.
+    // Its threads go away when the pool is idle.
+    private static final int APP_LOADER_THREADS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final ThreadPoolExecutor sAppLoaderPool = new ThreadPoolExecutor(
+            APP_LOADER_THREADS, APP_LOADER_THREADS, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "launcher-app-loader-" + mCount.incrementAndGet());
+                }
+            });
+    static {
+        sAppLoaderPool.allowCoreThreadTimeOut(true);
+    }
+
+    // All apps are bound as soon as they are sorted, with the icons which are already in memory,
+    // or the default icon. The other icons are decoded from the persistent cache or rendered on
+    // sAppLoaderPool, and bound in batches of this size.
+    private static final int ALL_APPS_ICON_BATCH_SIZE = 24;
+
     // We start off with everything not loaded.  After that, we assume that
     // our monitoring of the package manager provides all updates and we never
     // need to do a requery.  These are only ever touched from the loader thread.
     private boolean mWorkspaceLoaded;
     private boolean mAllAppsLoaded;
+    // Whether the next workspace load only needs to read the favorites which changed since the
+    // last one, see resetWorkspaceForChangedFavorites. Guarded by mLock.
+    private boolean mWorkspaceReloadIncremental;
 
     // When we are loading pages synchronously, we can't just post the binding of items on the side
     // pages as this delays the rotation process.  Instead, we wait for a callback from the first
@@ -148,6 +191,9 @@ public class LauncherModel extends BroadcastReceiver
 
     private WeakReference<Callbacks> mCallbacks;
 
+    // Counts the frames dropped while the workspace is bound. Main thread only.
+    private final LoaderTrace.FrameDropCounter mBindFrameDropCounter;
+
     // < only access in worker thread >
     AllAppsList mBgAllAppsList;
 
@@ -174,7 +220,65 @@ public class LauncherModel extends BroadcastReceiver
     static final HashMap<Long, FolderInfo> sBgFolders = new HashMap<Long, FolderInfo>();
 
     // sBgDbIconCache is the set of ItemInfos that need to have their icons updated in the database
-    static final HashMap<Object, byte[]> sBgDbIconCache = new HashMap<Object, byte[]>();
+    static final HashSet<ShortcutInfo> sBgDbIconCache = new HashSet<ShortcutInfo>();
+
+    // Updates of favorites rows which are not written yet, by item id, see queueItemUpdate. Only
+    // used on the worker thread.
+    private static final long ITEM_UPDATES_FLUSH_DELAY_MS = 150;
+    private static final LinkedHashMap<Long, ContentValues> sPendingItemUpdates =
+            new LinkedHashMap<Long, ContentValues>();
+    private static ContentResolver sPendingItemUpdatesResolver;
+    private static boolean sItemUpdatesFlushScheduled;
+    private static final Runnable sFlushItemUpdatesRunnable = new Runnable() {
+        public void run() {
+            sItemUpdatesFlushScheduled = false;
+            flushPendingItemUpdates();
+        }
+    };
+
+    // Package updates waiting to be run together, in order, see enqueuePackageUpdated. Guarded
+    // by itself.
+    private static final long PACKAGE_UPDATES_COALESCE_MS = 200;
+    private final ArrayList<PackageUpdatedTask> mPendingPackageUpdates =
+            new ArrayList<PackageUpdatedTask>();
+    private boolean mPackageUpdatesFlushScheduled;
+    // Number of package updates merged into an earlier one
+    private int mCoalescedPackageUpdates;
+    private final Runnable mFlushPackageUpdatesRunnable = new Runnable() {
+        public void run() {
+            flushPendingPackageUpdates();
+        }
+    };
+
+    // The favorites columns read by loadWorkspace, which leaves out the icon blobs
+    private static final String[] WORKSPACE_PROJECTION = {
+            LauncherSettings.Favorites._ID,
+            LauncherSettings.Favorites.INTENT,
+            LauncherSettings.Favorites.TITLE,
+            LauncherSettings.Favorites.ICON_TYPE,
+            LauncherSettings.Favorites.ICON_PACKAGE,
+            LauncherSettings.Favorites.ICON_RESOURCE,
+            LauncherSettings.Favorites.CONTAINER,
+            LauncherSettings.Favorites.ITEM_TYPE,
+            LauncherSettings.Favorites.APPWIDGET_ID,
+            LauncherSettings.Favorites.APPWIDGET_PROVIDER,
+            LauncherSettings.Favorites.SCREEN,
+            LauncherSettings.Favorites.CELLX,
+            LauncherSettings.Favorites.CELLY,
+            LauncherSettings.Favorites.SPANX,
+            LauncherSettings.Favorites.SPANY,
+            LauncherSettings.Favorites.RESTORED,
+            LauncherSettings.Favorites.PROFILE_ID,
+            LauncherSettings.Favorites.HIDDEN,
+    };
+
+    // Guards the decoding of the icons left in the database by loadWorkspace, and the
+    // replacement of the icon of a ShortcutInfo which may still have one to decode
+    static final Object sDbIconsLock = new Object();
+
+    // Position of the LauncherProvider journal when the sBg structures were last loaded, or -1
+    // if they do not hold a complete workspace.
+    static long sBgJournalPosition = -1;
 
     // sBgWorkspaceScreens is the ordered set of workspace screens.
     static final ArrayList<Long> sBgWorkspaceScreens = new ArrayList<Long>();
@@ -213,6 +317,7 @@ public class LauncherModel extends BroadcastReceiver
                                   ArrayList<AppInfo> addedApps);
         public void bindAppsRestored(ArrayList<AppInfo> apps);
         public void bindAppsUpdated(ArrayList<AppInfo> apps);
+        public void bindAppsBadgeChanged(ArrayList<AppInfo> apps);
         public void bindShortcutsChanged(ArrayList<ShortcutInfo> updated,
                 ArrayList<ShortcutInfo> removed, UserHandleCompat user);
         public void bindWidgetsRestored(ArrayList<LauncherAppWidgetInfo> widgets);
@@ -227,8 +332,16 @@ public class LauncherModel extends BroadcastReceiver
         public void dumpLogsToLocalData();
     }
 
+    // Minimum time between two deliveries of unread count changes.
+    private static final long UNREAD_UPDATE_MIN_INTERVAL_MS = 500;
+
+    // Last unread count received for every component, and the components whose count changed
+    // since the last delivery. Both are guarded by unreadChangedMap.
     private HashMap<ComponentName, UnreadInfo> unreadChangedMap =
             new HashMap<ComponentName, LauncherModel.UnreadInfo>();
+    private HashSet<ComponentName> mDirtyUnreads = new HashSet<ComponentName>();
+    private boolean mUnreadUpdateScheduled;
+    private long mLastUnreadUpdateTime;
 
     private class UnreadInfo {
         ComponentName mComponentName;
@@ -240,23 +353,27 @@ public class LauncherModel extends BroadcastReceiver
         }
     }
 
+    /**
+     * Applies the unread counts which changed since the last run to mBgAllAppsList, and tells
+     * the launcher about the apps whose badge changed.
+     */
     private class UnreadNumberChangeTask implements Runnable {
         public void run() {
             ArrayList<UnreadInfo> unreadInfos = new ArrayList<LauncherModel.UnreadInfo>();
             synchronized (unreadChangedMap) {
-                unreadInfos.addAll(unreadChangedMap.values());
-            }
-
-            Context context = mApp.getContext();
-            final Callbacks callbacks = mCallbacks != null ? mCallbacks.get() : null;
-            if (callbacks == null) {
-                Log.w(TAG, "Nobody to tell about the new app.  Launcher is probably loading.");
-                return;
+                mUnreadUpdateScheduled = false;
+                mLastUnreadUpdateTime = SystemClock.uptimeMillis();
+                for (ComponentName cn : mDirtyUnreads) {
+                    unreadInfos.add(unreadChangedMap.get(cn));
+                }
+                mDirtyUnreads.clear();
             }
 
+            // The counts are applied even without a launcher to tell, so that they are
+            // there when the apps are bound.
             final ArrayList<AppInfo> unreadChangeFinal = new ArrayList<AppInfo>();
             for (UnreadInfo uInfo : unreadInfos) {
-                AppInfo info = mBgAllAppsList.unreadNumbersChanged(context,
+                AppInfo info = mBgAllAppsList.unreadNumbersChanged(
                         uInfo.mComponentName, uInfo.mUnreadNum);
                 if (info != null) {
                     unreadChangeFinal.add(info);
@@ -265,11 +382,16 @@ public class LauncherModel extends BroadcastReceiver
 
             if (unreadChangeFinal.isEmpty()) return;
 
+            final Callbacks callbacks = mCallbacks != null ? mCallbacks.get() : null;
+            if (callbacks == null) {
+                Log.w(TAG, "Nobody to tell about the new app.  Launcher is probably loading.");
+                return;
+            }
             mHandler.post(new Runnable() {
                 public void run() {
                     Callbacks cb = mCallbacks != null ? mCallbacks.get() : null;
                     if (callbacks == cb && cb != null) {
-                        callbacks.bindAppsUpdated(unreadChangeFinal);
+                        callbacks.bindAppsBadgeChanged(unreadChangeFinal);
                     }
                 }
             });
@@ -313,6 +435,9 @@ public class LauncherModel extends BroadcastReceiver
         mPreviousConfigMcc = config.mcc;
         mLauncherApps = LauncherAppsCompat.getInstance(context);
         mUserManager = UserManagerCompat.getInstance(context);
+        WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        mBindFrameDropCounter = new LoaderTrace.FrameDropCounter(
+                wm.getDefaultDisplay().getRefreshRate());
     }
 
     /** Runs the specified runnable immediately if called from the main thread, otherwise it is
@@ -340,6 +465,12 @@ public class LauncherModel extends BroadcastReceiver
         }
     }
 
+    /** Posts the specified runnable on the worker thread handler, even if called from the
+     * worker thread. */
+    static void postOnWorkerThread(Runnable r) {
+        sWorker.post(r);
+    }
+
     boolean canMigrateFromOldLauncherDb(Launcher launcher) {
         return mOldContentProviderExists && !launcher.isLauncherPreinstalled() ;
     }
@@ -483,6 +614,9 @@ public class LauncherModel extends BroadcastReceiver
                     workspaceScreens.add(screenId);
                 }
 
+                flushPendingItemUpdates();
+                ShortcutKeys existingShortcuts = loadShortcutKeys(context);
+
                 synchronized(sBgLock) {
                     Iterator<ItemInfo> iter = workspaceApps.iterator();
                     while (iter.hasNext()) {
@@ -491,7 +625,7 @@ public class LauncherModel extends BroadcastReceiver
                         final Intent launchIntent = a.getIntent();
 
                         // Short-circuit this logic if the icon exists somewhere on the workspace
-                        if (shortcutExists(context, name, launchIntent, a.user)) {
+                        if (existingShortcuts.contains(name, launchIntent, a.user)) {
                             continue;
                         }
 
@@ -539,6 +673,7 @@ public class LauncherModel extends BroadcastReceiver
                         addItemToDatabase(context, shortcutInfo,
                                 LauncherSettings.Favorites.CONTAINER_DESKTOP,
                                 coords.first, coords.second[0], coords.second[1], false);
+                        existingShortcuts.add(name, launchIntent, a.user);
                         // Save the ShortcutInfo for binding in the workspace
                         addedShortcutsFinal.add(shortcutInfo);
                     }
@@ -690,13 +825,12 @@ public class LauncherModel extends BroadcastReceiver
     static void updateItemInDatabaseHelper(Context context, final ContentValues values,
             final ItemInfo item, final String callingFunction) {
         final long itemId = item.id;
-        final Uri uri = LauncherSettings.Favorites.getContentUri(itemId, false);
         final ContentResolver cr = context.getContentResolver();
 
         final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
         Runnable r = new Runnable() {
             public void run() {
-                cr.update(uri, values, null, null);
+                queueItemUpdate(cr, itemId, values);
                 updateItemArrays(item, itemId, stackTrace);
             }
         };
@@ -710,29 +844,84 @@ public class LauncherModel extends BroadcastReceiver
         final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
         Runnable r = new Runnable() {
             public void run() {
-                ArrayList<ContentProviderOperation> ops =
-                        new ArrayList<ContentProviderOperation>();
                 int count = items.size();
                 for (int i = 0; i < count; i++) {
                     ItemInfo item = items.get(i);
                     final long itemId = item.id;
-                    final Uri uri = LauncherSettings.Favorites.getContentUri(itemId, false);
-                    ContentValues values = valuesList.get(i);
-
-                    ops.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
+                    queueItemUpdate(cr, itemId, valuesList.get(i));
                     updateItemArrays(item, itemId, stackTrace);
-
-                }
-                try {
-                    cr.applyBatch(LauncherProvider.AUTHORITY, ops);
-                } catch (Exception e) {
-                    e.printStackTrace();
                 }
             }
         };
         runOnWorkerThread(r);
     }
 
+    /**
+     * Queues the update of a row of the favorites table, merging it with any update of the same
+     * row which is still pending. The model is updated right away by the caller, the rows are
+     * written by {@link #flushPendingItemUpdates} a little later, in a single transaction.
+     * Must be called on the worker thread.
+     */
+    private static void queueItemUpdate(ContentResolver cr, long itemId, ContentValues values) {
+        ContentValues pending = sPendingItemUpdates.get(itemId);
+        if (pending != null) {
+            pending.putAll(values);
+        } else {
+            sPendingItemUpdates.put(itemId, new ContentValues(values));
+        }
+        sPendingItemUpdatesResolver = cr;
+        if (!sItemUpdatesFlushScheduled) {
+            sItemUpdatesFlushScheduled = true;
+            sWorker.postDelayed(sFlushItemUpdatesRunnable, ITEM_UPDATES_FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Writes the pending row updates in one transaction. Must be called on the worker thread,
+     * before anything reads or deletes rows of the favorites table.
+     */
+    private static void flushPendingItemUpdates() {
+        if (sItemUpdatesFlushScheduled) {
+            sWorker.removeCallbacks(sFlushItemUpdatesRunnable);
+            sItemUpdatesFlushScheduled = false;
+        }
+        if (sPendingItemUpdates.isEmpty()) {
+            return;
+        }
+        ArrayList<ContentProviderOperation> ops =
+                new ArrayList<ContentProviderOperation>(sPendingItemUpdates.size());
+        for (Entry<Long, ContentValues> e : sPendingItemUpdates.entrySet()) {
+            final Uri uri = LauncherSettings.Favorites.getContentUri(e.getKey(), false);
+            ops.add(ContentProviderOperation.newUpdate(uri).withValues(e.getValue()).build());
+        }
+        sPendingItemUpdates.clear();
+        try {
+            sPendingItemUpdatesResolver.applyBatch(LauncherProvider.AUTHORITY, ops);
+        } catch (Exception e) {
+            Log.e(TAG, "failed to write " + ops.size() + " item updates", e);
+        }
+    }
+
+    /**
+     * Drops the pending update of a row which is about to be deleted. Must be called on the
+     * worker thread.
+     */
+    private static void dropPendingItemUpdate(long itemId) {
+        sPendingItemUpdates.remove(itemId);
+    }
+
+    /**
+     * Writes the pending row updates now rather than after the usual delay, for instance when
+     * the launcher goes to the background and may be killed.
+     */
+    static void flushItemUpdates() {
+        runOnWorkerThread(new Runnable() {
+            public void run() {
+                flushPendingItemUpdates();
+            }
+        });
+    }
+
     static void updateItemArrays(ItemInfo item, long itemId, StackTraceElement[] stackTrace) {
         // Lock on mBgLock *after* the db operation
         synchronized (sBgLock) {
@@ -778,6 +967,8 @@ public class LauncherModel extends BroadcastReceiver
         mFlushingWorkerThread = true;
         Runnable waiter = new Runnable() {
                 public void run() {
+                    // Callers wait for the database to be up to date
+                    flushPendingItemUpdates();
                     synchronized (this) {
                         notifyAll();
                         mFlushingWorkerThread = false;
@@ -907,41 +1098,77 @@ public class LauncherModel extends BroadcastReceiver
     }
 
     /**
-     * Returns true if the shortcuts already exists in the database.
-     * we identify a shortcut by its title and intent.
+     * Set of the shortcuts in the database, identified by their title, intent and user, to check
+     * a batch of shortcuts with a single query. See {@link #loadShortcutKeys}.
      */
-    static boolean shortcutExists(Context context, String title, Intent intent,
-            UserHandleCompat user) {
-        final ContentResolver cr = context.getContentResolver();
-        final Intent intentWithPkg, intentWithoutPkg;
+    static class ShortcutKeys {
+        private final HashSet<String> mKeys = new HashSet<String>();
+        private final UserManagerCompat mUserManager;
 
-        if (intent.getComponent() != null) {
-            // If component is not null, an intent with null package will produce
-            // the same result and should also be a match.
-            if (intent.getPackage() != null) {
-                intentWithPkg = intent;
-                intentWithoutPkg = new Intent(intent).setPackage(null);
+        private ShortcutKeys(Context context) {
+            mUserManager = UserManagerCompat.getInstance(context);
+        }
+
+        private static String getKey(String title, String intentUri, long userSerial) {
+            return userSerial + "/" + intentUri + "/" + title;
+        }
+
+        /**
+         * Returns true if the shortcut is in the set. A shortcut with an explicit component
+         * matches whether or not the package of its intent is set.
+         */
+        boolean contains(String title, Intent intent, UserHandleCompat user) {
+            final Intent intentWithPkg, intentWithoutPkg;
+
+            if (intent.getComponent() != null) {
+                // If component is not null, an intent with null package will produce
+                // the same result and should also be a match.
+                if (intent.getPackage() != null) {
+                    intentWithPkg = intent;
+                    intentWithoutPkg = new Intent(intent).setPackage(null);
+                } else {
+                    intentWithPkg = new Intent(intent).setPackage(
+                            intent.getComponent().getPackageName());
+                    intentWithoutPkg = intent;
+                }
             } else {
-                intentWithPkg = new Intent(intent).setPackage(
-                        intent.getComponent().getPackageName());
+                intentWithPkg = intent;
                 intentWithoutPkg = intent;
             }
-        } else {
-            intentWithPkg = intent;
-            intentWithoutPkg = intent;
+            long userSerial = mUserManager.getSerialNumberForUser(user);
+            return mKeys.contains(getKey(title, intentWithPkg.toUri(0), userSerial))
+                    || mKeys.contains(getKey(title, intentWithoutPkg.toUri(0), userSerial));
+        }
+
+        /**
+         * Adds a shortcut which was just added to the database.
+         */
+        void add(String title, Intent intent, UserHandleCompat user) {
+            mKeys.add(getKey(title, intent.toUri(0), mUserManager.getSerialNumberForUser(user)));
         }
-        String userSerial = Long.toString(UserManagerCompat.getInstance(context)
-                .getSerialNumberForUser(user));
+    }
+
+    /**
+     * Returns the set of the shortcuts which exist in the database, read in a single query.
+     * We identify a shortcut by its title, intent and user.
+     */
+    static ShortcutKeys loadShortcutKeys(Context context) {
+        ShortcutKeys keys = new ShortcutKeys(context);
+        final ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI,
             new String[] { "title", "intent", "profileId" },
-            "title=? and (intent=? or intent=?) and profileId=?",
-            new String[] { title, intentWithPkg.toUri(0), intentWithoutPkg.toUri(0), userSerial },
-            null);
+            "title not null and intent not null", null, null);
+        if (c == null) {
+            return keys;
+        }
         try {
-            return c.moveToFirst();
+            while (c.moveToNext()) {
+                keys.mKeys.add(ShortcutKeys.getKey(c.getString(0), c.getString(1), c.getLong(2)));
+            }
         } finally {
             c.close();
         }
+        return keys;
     }
 
     /**
@@ -1081,6 +1308,7 @@ public class LauncherModel extends BroadcastReceiver
                 cr.insert(notify ? LauncherSettings.Favorites.CONTENT_URI :
                         LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION, values);
 
+                LauncherAppState.getInstance().getIconCache().addPinnedItem(item);
                 // Lock on mBgLock *after* the db operation
                 synchronized (sBgLock) {
                     checkItemInfoLocked(item.id, item, stackTrace);
@@ -1165,6 +1393,7 @@ public class LauncherModel extends BroadcastReceiver
             public void run() {
                 for (ItemInfo item : items) {
                     final Uri uri = LauncherSettings.Favorites.getContentUri(item.id, false);
+                    dropPendingItemUpdate(item.id);
                     cr.delete(uri, null, null);
 
                     // Lock on mBgLock *after* the db operation
@@ -1274,6 +1503,7 @@ public class LauncherModel extends BroadcastReceiver
 
         Runnable r = new Runnable() {
             public void run() {
+                dropPendingItemUpdate(info.id);
                 cr.delete(LauncherSettings.Favorites.getContentUri(info.id, false), null, null);
                 // Lock on mBgLock *after* the db operation
                 synchronized (sBgLock) {
@@ -1283,6 +1513,8 @@ public class LauncherModel extends BroadcastReceiver
                     sBgWorkspaceItems.remove(info);
                 }
 
+                // The children are selected by container, which may have pending updates
+                flushPendingItemUpdates();
                 cr.delete(LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION,
                         LauncherSettings.Favorites.CONTAINER + "=" + info.id, null);
                 // Lock on mBgLock *after* the db operation
@@ -1393,16 +1625,42 @@ public class LauncherModel extends BroadcastReceiver
 
             if (componentName == null) return;
             synchronized (unreadChangedMap) {
-                unreadChangedMap.put(componentName, new UnreadInfo(componentName, unreadNum));
+                UnreadInfo old = unreadChangedMap.put(componentName,
+                        new UnreadInfo(componentName, unreadNum));
+                if (old != null && old.mUnreadNum == unreadNum) {
+                    return;
+                }
+                mDirtyUnreads.add(componentName);
             }
-            sWorker.removeCallbacks(mUnreadUpdateTask);
-            sWorker.post(mUnreadUpdateTask);
+            scheduleUnreadUpdate();
         }
     }
 
+    /**
+     * Applies all the known unread counts again, e.g. after the apps were reloaded.
+     */
     public void updateCount() {
-        sWorker.removeCallbacks(mUnreadUpdateTask);
-        sWorker.post(mUnreadUpdateTask);
+        synchronized (unreadChangedMap) {
+            mDirtyUnreads.addAll(unreadChangedMap.keySet());
+        }
+        scheduleUnreadUpdate();
+    }
+
+    /**
+     * Runs mUnreadUpdateTask, no sooner than UNREAD_UPDATE_MIN_INTERVAL_MS after its last run.
+     * Changes arriving while it is scheduled are delivered together.
+     */
+    private void scheduleUnreadUpdate() {
+        long delay;
+        synchronized (unreadChangedMap) {
+            if (mUnreadUpdateScheduled) {
+                return;
+            }
+            mUnreadUpdateScheduled = true;
+            delay = mLastUnreadUpdateTime + UNREAD_UPDATE_MIN_INTERVAL_MS
+                    - SystemClock.uptimeMillis();
+        }
+        sWorker.postDelayed(mUnreadUpdateTask, Math.max(0, delay));
     }
 
     void forceReload() {
@@ -1420,7 +1678,24 @@ public class LauncherModel extends BroadcastReceiver
             // mWorkspaceLoaded to true later
             stopLoaderLocked();
             if (resetAllAppsLoaded) mAllAppsLoaded = false;
-            if (resetWorkspaceLoaded) mWorkspaceLoaded = false;
+            if (resetWorkspaceLoaded) {
+                mWorkspaceLoaded = false;
+                mWorkspaceReloadIncremental = false;
+            }
+        }
+    }
+
+    /**
+     * Resets the workspace loaded state after the favorites were changed outside of the model.
+     * Unless a full reload is already pending, the next load only reads the changed favorites.
+     */
+    public void resetWorkspaceForChangedFavorites() {
+        synchronized (mLock) {
+            stopLoaderLocked();
+            if (mWorkspaceLoaded) {
+                mWorkspaceLoaded = false;
+                mWorkspaceReloadIncremental = true;
+            }
         }
     }
 
@@ -1609,7 +1884,12 @@ public class LauncherModel extends BroadcastReceiver
 
             boolean isUpgradePath = false;
             if (!mWorkspaceLoaded) {
-                isUpgradePath = loadWorkspace();
+                final long loadStart = LoaderTrace.begin(LoaderTrace.LOAD_WORKSPACE);
+                try {
+                    isUpgradePath = loadWorkspace();
+                } finally {
+                    LoaderTrace.end(LoaderTrace.LOAD_WORKSPACE, loadStart);
+                }
                 synchronized (LoaderTask.this) {
                     if (mStopped) {
                         return isUpgradePath;
@@ -1687,12 +1967,17 @@ public class LauncherModel extends BroadcastReceiver
             // are executed before any synchronous binding work is done.
             mHandler.flush();
 
-            // Divide the set of loaded items into those that we are binding synchronously, and
-            // everything else that is to be bound normally (asynchronously).
-            bindWorkspace(synchronousBindPage, false);
-            // XXX: For now, continue posting the binding of AllApps as there are other issues that
-            //      arise from that.
-            onlyBindAllApps();
+            final long bindStart = LoaderTrace.begin(LoaderTrace.BIND_SYNCHRONOUS_PAGE);
+            try {
+                // Divide the set of loaded items into those that we are binding synchronously,
+                // and everything else that is to be bound normally (asynchronously).
+                bindWorkspace(synchronousBindPage, false);
+                // XXX: For now, continue posting the binding of AllApps as there are other issues
+                //      that arise from that.
+                onlyBindAllApps();
+            } finally {
+                LoaderTrace.end(LoaderTrace.BIND_SYNCHRONOUS_PAGE, bindStart);
+            }
         }
 
         public void run() {
@@ -1713,6 +1998,12 @@ public class LauncherModel extends BroadcastReceiver
                     android.os.Process.setThreadPriority(mIsLaunching
                             ? Process.THREAD_PRIORITY_DEFAULT : Process.THREAD_PRIORITY_BACKGROUND);
                 }
+                if (!mAllAppsLoaded) {
+                    // Read the persisted icons before the workspace so that both the workspace
+                    // and all apps can skip rendering icons of unchanged packages.
+                    mIconCache.preloadPersistedEntries();
+                }
+
                 if (DEBUG_LOADERS) Log.d(TAG, "step 1: loading workspace");
                 isUpgrade = loadAndBindWorkspace();
 
@@ -1742,12 +2033,17 @@ public class LauncherModel extends BroadcastReceiver
 
             // Update the saved icons if necessary
             if (DEBUG_LOADERS) Log.d(TAG, "Comparing loaded icons to database icons");
+            ArrayList<ShortcutInfo> savedIcons;
             synchronized (sBgLock) {
-                for (Object key : sBgDbIconCache.keySet()) {
-                    updateSavedIcon(mContext, (ShortcutInfo) key, sBgDbIconCache.get(key));
-                }
+                savedIcons = new ArrayList<ShortcutInfo>(sBgDbIconCache);
                 sBgDbIconCache.clear();
             }
+            if (!savedIcons.isEmpty()) {
+                HashMap<Long, byte[]> blobs = loadIconBlobs(mContext, savedIcons);
+                for (ShortcutInfo info : savedIcons) {
+                    updateSavedIcon(mContext, info, blobs.get(info.id));
+                }
+            }
 
             if (LauncherAppState.isDisableAllApps()) {
                 // Ensure that all the applications that are in the system are
@@ -2015,9 +2311,70 @@ public class LauncherModel extends BroadcastReceiver
             return true;
         }
 
+        /**
+         * Removes the favorites which changed since the last load from the sBg structures, and
+         * returns the selection of the rows to read again. A folder is read again with all its
+         * contents whenever any of them changed, so that no folder which may still be bound is
+         * modified from this thread. The cells of the remaining items are marked in "occupied".
+         */
+        private String removeChangedItemsLocked(ContentResolver cr, HashSet<Long> changedIds,
+                HashMap<Long, ItemInfo[][]> occupied) {
+            final HashSet<Long> ids = new HashSet<Long>(changedIds);
+
+            // The folders the changed items are moving to
+            Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION,
+                    new String[] { LauncherSettings.Favorites.CONTAINER },
+                    LauncherSettings.Favorites._ID + " IN (" + TextUtils.join(",", changedIds)
+                    + ") AND " + LauncherSettings.Favorites.CONTAINER + " >= 0", null, null);
+            if (c != null) {
+                try {
+                    while (c.moveToNext()) {
+                        ids.add(c.getLong(0));
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+            // The folders they are moving from
+            for (long id : changedIds) {
+                ItemInfo item = sBgItemsIdMap.get(id);
+                if (item != null && item.container >= 0) {
+                    ids.add(item.container);
+                }
+            }
+            // The contents of all these folders
+            for (long id : new ArrayList<Long>(ids)) {
+                FolderInfo folder = sBgFolders.get(id);
+                if (folder != null) {
+                    for (ShortcutInfo info : folder.contents) {
+                        ids.add(info.id);
+                    }
+                }
+            }
+
+            for (long id : ids) {
+                sBgFolders.remove(id);
+                ItemInfo item = sBgItemsIdMap.remove(id);
+                if (item == null) {
+                    continue;
+                }
+                sBgWorkspaceItems.remove(item);
+                if (item instanceof LauncherAppWidgetInfo) {
+                    sBgAppWidgets.remove(item);
+                }
+                sBgDbIconCache.remove(item);
+            }
+
+            for (ItemInfo item : sBgItemsIdMap.values()) {
+                checkItemPlacement(occupied, item, false);
+            }
+            return LauncherSettings.Favorites._ID + " IN (" + TextUtils.join(",", ids) + ")";
+        }
+
         /** Clears all the sBg data structures */
         private void clearSBgDataStructures() {
             synchronized (sBgLock) {
+                sBgJournalPosition = -1;
                 sBgWorkspaceItems.clear();
                 sBgAppWidgets.clear();
                 sBgFolders.clear();
@@ -2034,6 +2391,9 @@ public class LauncherModel extends BroadcastReceiver
 
             final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
 
+            // The workspace is read from the database, which must have every update
+            flushPendingItemUpdates();
+
             final Context context = mContext;
             final ContentResolver contentResolver = context.getContentResolver();
             final PackageManager manager = context.getPackageManager();
@@ -2071,21 +2431,45 @@ public class LauncherModel extends BroadcastReceiver
             // Log to disk
             Launcher.addDumpLog(TAG, "11683562 -   loadedOldDb: " + loadedOldDb, true);
 
+            // If the loaded workspace is still complete, and the provider journaled every change
+            // since it was loaded, only the changed favorites are read again.
+            final LauncherProvider provider = LauncherAppState.getLauncherProvider();
+            final long journalPosition = provider.getJournalPosition();
+            boolean incremental;
+            synchronized (mLock) {
+                incremental = mWorkspaceReloadIncremental;
+            }
+            HashSet<Long> changedIds = null;
+            if (incremental && mFlags == LOADER_FLAG_NONE && sBgJournalPosition >= 0) {
+                changedIds = provider.getChangedItemIds(sBgJournalPosition);
+            }
+
             synchronized (sBgLock) {
-                clearSBgDataStructures();
+                // +1 for the hotseat (it can be larger than the workspace)
+                // Load workspace in reverse order to ensure that latest items are loaded first (and
+                // before any earlier duplicates)
+                final HashMap<Long, ItemInfo[][]> occupied = new HashMap<Long, ItemInfo[][]>();
+                final String selection;
+                if (changedIds != null) {
+                    selection = removeChangedItemsLocked(contentResolver, changedIds, occupied);
+                    sBgWorkspaceScreens.clear();
+                } else {
+                    clearSBgDataStructures();
+                    selection = null;
+                }
                 final HashSet<String> installingPkgs = PackageInstallerCompat
                         .getInstance(mContext).updateAndGetActiveSessionCache();
 
                 final ArrayList<Long> itemsToRemove = new ArrayList<Long>();
                 final ArrayList<Long> restoredRows = new ArrayList<Long>();
                 final Uri contentUri = LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION;
-                if (DEBUG_LOADERS) Log.d(TAG, "loading model from " + contentUri);
-                final Cursor c = contentResolver.query(contentUri, null, null, null, null);
-
-                // +1 for the hotseat (it can be larger than the workspace)
-                // Load workspace in reverse order to ensure that latest items are loaded first (and
-                // before any earlier duplicates)
-                final HashMap<Long, ItemInfo[][]> occupied = new HashMap<Long, ItemInfo[][]>();
+                if (DEBUG_LOADERS) {
+                    Log.d(TAG, "loading model from " + contentUri + (changedIds != null
+                            ? ", " + changedIds.size() + " changed items" : ""));
+                }
+                // The icon blobs are only read when the items are bound, see loadDbIcons
+                final Cursor c = contentResolver.query(contentUri, WORKSPACE_PROJECTION,
+                        selection, null, null);
 
                 try {
                     final int idIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
@@ -2095,7 +2479,6 @@ public class LauncherModel extends BroadcastReceiver
                             (LauncherSettings.Favorites.TITLE);
                     final int iconTypeIndex = c.getColumnIndexOrThrow(
                             LauncherSettings.Favorites.ICON_TYPE);
-                    final int iconIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON);
                     final int iconPackageIndex = c.getColumnIndexOrThrow(
                             LauncherSettings.Favorites.ICON_PACKAGE);
                     final int iconResourceIndex = c.getColumnIndexOrThrow(
@@ -2279,10 +2662,10 @@ public class LauncherModel extends BroadcastReceiver
                                 } else if (itemType ==
                                         LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
                                     info = getShortcutInfo(manager, intent, user, context, c,
-                                            iconIndex, titleIndex, mLabelCache, allowMissingTarget);
+                                            id, titleIndex, mLabelCache, allowMissingTarget);
                                 } else {
                                     info = getShortcutInfo(c, context, iconTypeIndex,
-                                            iconPackageIndex, iconResourceIndex, iconIndex,
+                                            iconPackageIndex, iconResourceIndex, idIndex,
                                             titleIndex);
 
                                     if (info.title == null) {
@@ -2343,7 +2726,7 @@ public class LauncherModel extends BroadcastReceiver
 
                                     // now that we've loaded everthing re-save it with the
                                     // icon in case it disappears somehow.
-                                    queueIconToBeChecked(sBgDbIconCache, info, c, iconIndex);
+                                    queueIconToBeChecked(sBgDbIconCache, info);
                                 } else {
                                     throw new RuntimeException("Unexpected null ShortcutInfo");
                                 }
@@ -2611,6 +2994,8 @@ public class LauncherModel extends BroadcastReceiver
                     updateWorkspaceScreenOrder(context, sBgWorkspaceScreens);
                 }
 
+                sBgJournalPosition = journalPosition;
+
                 // If any items have been shifted and require a DB update, update them in the DB.
                 if (shouldResize) {
                     for (ItemInfo info : sBgWorkspaceItems) {
@@ -2651,6 +3036,30 @@ public class LauncherModel extends BroadcastReceiver
             return loadedOldDb;
         }
 
+        /**
+         * Decodes the icons of the shortcuts in "items" and "folders" which were left in the
+         * database by loadWorkspace.
+         */
+        private void loadDbIcons(ArrayList<ItemInfo> items, HashMap<Long, FolderInfo> folders) {
+            ArrayList<ShortcutInfo> pending = new ArrayList<ShortcutInfo>();
+            for (ItemInfo item : items) {
+                if (item instanceof ShortcutInfo && ((ShortcutInfo) item).iconRowId
+                        != ItemInfo.NO_ID) {
+                    pending.add((ShortcutInfo) item);
+                }
+            }
+            for (FolderInfo folder : folders.values()) {
+                for (ShortcutInfo info : folder.contents) {
+                    if (info.iconRowId != ItemInfo.NO_ID) {
+                        pending.add(info);
+                    }
+                }
+            }
+            if (!pending.isEmpty()) {
+                LauncherModel.loadDbIcons(mContext, pending);
+            }
+        }
+
         /** Filters the set of items who are directly or indirectly (via another container) on the
          * specified screen. */
         private void filterCurrentWorkspaceItems(long currentScreenId,
@@ -2735,28 +3144,38 @@ public class LauncherModel extends BroadcastReceiver
             }
         }
 
-        /** Sorts the set of items by hotseat, workspace (spatially from top to bottom, left to
-         * right) */
-        private void sortWorkspaceItemsSpatially(ArrayList<ItemInfo> workspaceItems) {
-            final LauncherAppState app = LauncherAppState.getInstance();
-            final DeviceProfile grid = app.getDynamicGrid().getDeviceProfile();
-            // XXX: review this
-            Collections.sort(workspaceItems, new Comparator<ItemInfo>() {
+        /**
+         * Stable sorts the items by the distance of their page to the current page. Items which
+         * are not directly on a page go last.
+         */
+        private void sortByDistanceToPage(ArrayList<? extends ItemInfo> items,
+                ArrayList<Long> orderedScreenIds, int currentScreen) {
+            final HashMap<Long, Integer> distances = new HashMap<Long, Integer>();
+            final int current = Math.max(currentScreen, 0);
+            for (int i = 0; i < orderedScreenIds.size(); i++) {
+                distances.put(orderedScreenIds.get(i), Math.abs(i - current));
+            }
+            Collections.sort(items, new Comparator<ItemInfo>() {
                 @Override
                 public int compare(ItemInfo lhs, ItemInfo rhs) {
-                    int cellCountX = (int) grid.numColumns;
-                    int cellCountY = (int) grid.numRows;
-                    int screenOffset = cellCountX * cellCountY;
-                    int containerOffset = screenOffset * (Launcher.SCREEN_COUNT + 1); // +1 hotseat
-                    long lr = (lhs.container * containerOffset + lhs.screenId * screenOffset +
-                            lhs.cellY * cellCountX + lhs.cellX);
-                    long rr = (rhs.container * containerOffset + rhs.screenId * screenOffset +
-                            rhs.cellY * cellCountX + rhs.cellX);
-                    return (int) (lr - rr);
+                    return getDistance(lhs) - getDistance(rhs);
+                }
+
+                private int getDistance(ItemInfo item) {
+                    Integer distance =
+                            item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP
+                            ? distances.get(item.screenId) : null;
+                    return distance != null ? distance : Integer.MAX_VALUE;
                 }
             });
         }
 
+        /** Sorts the set of items by hotseat, workspace (spatially from top to bottom, left to
+         * right) */
+        private void sortWorkspaceItemsSpatially(ArrayList<ItemInfo> workspaceItems) {
+            sortItemsSpatially(workspaceItems);
+        }
+
         private void bindWorkspaceScreens(final Callbacks oldCallbacks,
                 final ArrayList<Long> orderedScreens) {
             final Runnable r = new Runnable() {
@@ -2883,6 +3302,43 @@ public class LauncherModel extends BroadcastReceiver
             }
         }
 
+        /**
+         * Binds workspace items on the main thread over as many frames as needed, binding in
+         * each frame as many items as fit in BIND_FRAME_BUDGET_NANOS at the measured cost of
+         * an item.
+         */
+        private class WorkspaceItemsBinder extends DeferredHandler.FrameRunnable {
+            private final Callbacks mOldCallbacks;
+            private final ArrayList<ItemInfo> mItems;
+            private int mNext;
+
+            WorkspaceItemsBinder(Callbacks oldCallbacks, ArrayList<ItemInfo> items) {
+                mOldCallbacks = oldCallbacks;
+                mItems = items;
+            }
+
+            @Override
+            public boolean runStep(long frameTimeNanos) {
+                Callbacks callbacks = tryGetCallbacks(mOldCallbacks);
+                if (callbacks == null) {
+                    return true;
+                }
+                final long deadline = frameTimeNanos + BIND_FRAME_BUDGET_NANOS;
+                final int count = mItems.size();
+                do {
+                    long start = System.nanoTime();
+                    // Always bind at least one item, so that binding makes progress
+                    int end = mNext + (int) Math.max(1, Math.min(count - mNext,
+                            (deadline - start) / Math.max(sBindItemCostNanos, 1)));
+                    callbacks.bindItems(mItems, mNext, end, false);
+                    long cost = (System.nanoTime() - start) / (end - mNext);
+                    sBindItemCostNanos = (3 * sBindItemCostNanos + cost) / 4;
+                    mNext = end;
+                } while (mNext < count && System.nanoTime() + sBindItemCostNanos < deadline);
+                return mNext >= count;
+            }
+        }
+
         private void bindWorkspaceItems(final Callbacks oldCallbacks,
                 final ArrayList<ItemInfo> workspaceItems,
                 final ArrayList<LauncherAppWidgetInfo> appWidgets,
@@ -2893,21 +3349,9 @@ public class LauncherModel extends BroadcastReceiver
 
             removeHiddenAppsWorkspaceItems(workspaceItems, appWidgets, folders);
 
-            // Bind the workspace items
-            int N = workspaceItems.size();
-            for (int i = 0; i < N; i += ITEMS_CHUNK) {
-                final int start = i;
-                final int chunkSize = (i+ITEMS_CHUNK <= N) ? ITEMS_CHUNK : (N-i);
-                final Runnable r = new Runnable() {
-                    @Override
-                    public void run() {
-                        Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-                        if (callbacks != null) {
-                            callbacks.bindItems(workspaceItems, start, start+chunkSize,
-                                    false);
-                        }
-                    }
-                };
+            // Bind the workspace items, as many per frame as fit in the frame budget
+            if (!workspaceItems.isEmpty()) {
+                final Runnable r = new WorkspaceItemsBinder(oldCallbacks, workspaceItems);
                 if (postOnMainThread) {
                     synchronized (deferredBindRunnables) {
                         deferredBindRunnables.add(r);
@@ -2937,7 +3381,7 @@ public class LauncherModel extends BroadcastReceiver
             }
 
             // Bind the widgets, one at a time
-            N = appWidgets.size();
+            int N = appWidgets.size();
             for (int i = 0; i < N; i++) {
                 final LauncherAppWidgetInfo widget = appWidgets.get(i);
                 // Need to ensure the spans are sane (e.g. not below min spans)
@@ -2975,6 +3419,23 @@ public class LauncherModel extends BroadcastReceiver
                 return;
             }
 
+            LoaderTrace.begin(LoaderTrace.BIND_WORKSPACE);
+            try {
+                bindWorkspace(oldCallbacks, t, synchronizeBindPage, isUpgradePath);
+            } finally {
+                LoaderTrace.end(LoaderTrace.BIND_WORKSPACE, t);
+            }
+        }
+
+        /**
+         * Splits the workspace items and posts their binding. The time spent until the current
+         * page, and then the other pages, are bound on the main thread is recorded in
+         * LoaderTrace, counting from "t".
+         */
+        private void bindWorkspace(final Callbacks oldCallbacks, final long t,
+                int synchronizeBindPage, final boolean isUpgradePath) {
+            Runnable r;
+
             // Save a copy of all the bg-thread collections
             ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>();
             ArrayList<LauncherAppWidgetInfo> appWidgets =
@@ -2989,6 +3450,7 @@ public class LauncherModel extends BroadcastReceiver
                 itemsIdMap.putAll(sBgItemsIdMap);
                 orderedScreenIds.addAll(sBgWorkspaceScreens);
             }
+            mIconCache.setPinnedItems(workspaceItems);
 
             final boolean isLoadingSynchronously =
                     synchronizeBindPage != PagedView.INVALID_RESTORE_PAGE;
@@ -3024,10 +3486,14 @@ public class LauncherModel extends BroadcastReceiver
                     otherFolders);
             sortWorkspaceItemsSpatially(currentWorkspaceItems);
             sortWorkspaceItemsSpatially(otherWorkspaceItems);
+            // Bind the other pages from the neighbours of the current page outwards
+            sortByDistanceToPage(otherWorkspaceItems, orderedScreenIds, currentScreen);
+            sortByDistanceToPage(otherAppWidgets, orderedScreenIds, currentScreen);
 
             // Tell the workspace that we're about to start binding items
             r = new Runnable() {
                 public void run() {
+                    mBindFrameDropCounter.start();
                     Callbacks callbacks = tryGetCallbacks(oldCallbacks);
                     if (callbacks != null) {
                         callbacks.startBinding();
@@ -3039,8 +3505,15 @@ public class LauncherModel extends BroadcastReceiver
             bindWorkspaceScreens(oldCallbacks, orderedScreenIds);
 
             // Load items on the current page
+            loadDbIcons(currentWorkspaceItems, currentFolders);
             bindWorkspaceItems(oldCallbacks, currentWorkspaceItems, currentAppWidgets,
                     currentFolders, null);
+            r = new Runnable() {
+                public void run() {
+                    LoaderTrace.record(LoaderTrace.BIND_CURRENT_PAGE, t);
+                }
+            };
+            runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
             if (isLoadingSynchronously) {
                 r = new Runnable() {
                     public void run() {
@@ -3058,6 +3531,7 @@ public class LauncherModel extends BroadcastReceiver
             synchronized (mDeferredBindRunnables) {
                 mDeferredBindRunnables.clear();
             }
+            loadDbIcons(otherWorkspaceItems, otherFolders);
             bindWorkspaceItems(oldCallbacks, otherWorkspaceItems, otherAppWidgets, otherFolders,
                     (isLoadingSynchronously ? mDeferredBindRunnables : null));
 
@@ -3070,6 +3544,9 @@ public class LauncherModel extends BroadcastReceiver
                     }
 
                     // If we're profiling, ensure this is the last thing in the queue.
+                    LoaderTrace.record(LoaderTrace.BIND_OTHER_PAGES, t);
+                    LoaderTrace.recordCount(LoaderTrace.BIND_DROPPED_FRAMES, t,
+                            mBindFrameDropCounter.stop());
                     if (DEBUG_LOADERS) {
                         Log.d(TAG, "bound workspace in "
                             + (SystemClock.uptimeMillis()-t) + "ms");
@@ -3092,7 +3569,12 @@ public class LauncherModel extends BroadcastReceiver
                 Log.d(TAG, "loadAndBindAllApps mAllAppsLoaded=" + mAllAppsLoaded);
             }
             if (!mAllAppsLoaded) {
-                loadAllApps();
+                final long loadStart = LoaderTrace.begin(LoaderTrace.LOAD_ALL_APPS);
+                try {
+                    loadAllApps();
+                } finally {
+                    LoaderTrace.end(LoaderTrace.LOAD_ALL_APPS, loadStart);
+                }
                 synchronized (LoaderTask.this) {
                     if (mStopped) {
                         return;
@@ -3154,6 +3636,83 @@ public class LauncherModel extends BroadcastReceiver
 
             // Clear the list of apps
             mBgAllAppsList.clear();
+            // Indices in mBgAllAppsList.data of the apps bound with a placeholder icon, and their
+            // activity info
+            final ArrayList<Integer> placeholders = new ArrayList<Integer>();
+            final ArrayList<LauncherActivityInfoCompat> placeholderActivities =
+                    new ArrayList<LauncherActivityInfoCompat>();
+            final long labelsStart = LoaderTrace.begin(LoaderTrace.LOAD_ALL_APPS_LABELS);
+            boolean loaded;
+            try {
+                loaded = loadAllAppLabels(profiles, placeholders, placeholderActivities);
+            } finally {
+                LoaderTrace.end(LoaderTrace.LOAD_ALL_APPS_LABELS, labelsStart);
+            }
+            if (!loaded) {
+                return;
+            }
+            // Start decoding and rendering the other icons while the labels are bound
+            final ArrayList<Future<AppInfo>> futures = submitAppInfos(placeholderActivities);
+
+            // Huh? Shouldn't this be inside the Runnable below?
+            final ArrayList<AppInfo> added = mBgAllAppsList.added;
+            mBgAllAppsList.added = new ArrayList<AppInfo>();
+
+            // Post callback on main thread
+            mHandler.post(new Runnable() {
+                public void run() {
+                    final long bindTime = SystemClock.uptimeMillis();
+                    final Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                    if (callbacks != null) {
+                        callbacks.bindAllApplications(added);
+                        if (DEBUG_LOADERS) {
+                            Log.d(TAG, "bound " + added.size() + " apps in "
+                                + (SystemClock.uptimeMillis() - bindTime) + "ms");
+                        }
+                    } else {
+                        Log.i(TAG, "not binding apps: no Launcher activity");
+                    }
+                }
+            });
+
+            if (!placeholders.isEmpty()) {
+                final long iconsStart = LoaderTrace.begin(LoaderTrace.LOAD_ALL_APPS_ICONS);
+                try {
+                    if (!bindRenderedIcons(placeholders, futures, oldCallbacks)) {
+                        return;
+                    }
+                } finally {
+                    LoaderTrace.end(LoaderTrace.LOAD_ALL_APPS_ICONS, iconsStart);
+                }
+                if (DEBUG_LOADERS) {
+                    Log.d(TAG, "streamed " + placeholders.size() + " icons on "
+                            + APP_LOADER_THREADS + " threads in "
+                            + LoaderTrace.getLastDuration(LoaderTrace.LOAD_ALL_APPS_ICONS)
+                            + "ms");
+                }
+            }
+            // Anything persisted which was not used by now, and is not a loaded app, belongs to
+            // a removed component
+            mIconCache.prunePersistedEntries(mBgAllAppsList.data);
+            mIconCache.setPinnedApps(mBgAllAppsList.data);
+            // The new apps have no unread counts yet
+            updateCount();
+
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "Icons processed in "
+                        + (SystemClock.uptimeMillis() - loadTime) + "ms");
+            }
+        }
+
+        /**
+         * Adds the apps of every profile to mBgAllAppsList, sorted by label, with the icons which
+         * are already in memory. The indices and activities of the apps left with a placeholder
+         * icon are added to "placeholders" and "placeholderActivities". Returns false if a
+         * profile has no apps.
+         */
+        private boolean loadAllAppLabels(List<UserHandleCompat> profiles,
+                ArrayList<Integer> placeholders,
+                ArrayList<LauncherActivityInfoCompat> placeholderActivities) {
             SharedPreferences prefs = mContext.getSharedPreferences(
                     LauncherAppState.getSharedPreferencesKey(), Context.MODE_PRIVATE);
             for (UserHandleCompat user : profiles) {
@@ -3168,10 +3727,11 @@ public class LauncherModel extends BroadcastReceiver
                 // Fail if we don't have any apps
                 // TODO: Fix this. Only fail for the current user.
                 if (apps == null || apps.isEmpty()) {
-                    return;
+                    return false;
                 }
-                // Sort the applications by name
+                // Sort the applications by name, using the persisted labels where possible
                 final long sortTime = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+                mIconCache.getPersistedLabels(apps, mLabelCache);
                 Collections.sort(apps,
                         new LauncherModel.ShortcutNameComparator(mLabelCache));
                 if (DEBUG_LOADERS) {
@@ -3179,11 +3739,22 @@ public class LauncherModel extends BroadcastReceiver
                             + (SystemClock.uptimeMillis()-sortTime) + "ms");
                 }
 
-                // Create the ApplicationInfos
-                for (int i = 0; i < apps.size(); i++) {
-                    LauncherActivityInfoCompat app = apps.get(i);
-                    // This builds the icon bitmaps.
-                    mBgAllAppsList.add(new AppInfo(mContext, app, user, mIconCache, mLabelCache));
+                // Create the ApplicationInfos, with the icons which are already in memory
+                final long labelTime = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+                for (LauncherActivityInfoCompat app : apps) {
+                    AppInfo info = new AppInfo(mContext, app, user, mIconCache, mLabelCache,
+                            false);
+                    int size = mBgAllAppsList.size();
+                    mBgAllAppsList.add(info);
+                    if (mBgAllAppsList.size() > size
+                            && mIconCache.isDefaultIcon(info.iconBitmap, user)) {
+                        placeholders.add(size);
+                        placeholderActivities.add(app);
+                    }
+                }
+                if (DEBUG_LOADERS) {
+                    Log.d(TAG, "labels took " + (SystemClock.uptimeMillis() - labelTime)
+                            + "ms for " + apps.size() + " apps");
                 }
 
                 if (ADD_MANAGED_PROFILE_SHORTCUTS && !user.equals(UserHandleCompat.myUserHandle())) {
@@ -3205,31 +3776,90 @@ public class LauncherModel extends BroadcastReceiver
                     prefs.edit().putStringSet(shortcutsSetKey, newPackageSet).commit();
                 }
             }
-            // Huh? Shouldn't this be inside the Runnable below?
-            final ArrayList<AppInfo> added = mBgAllAppsList.added;
-            mBgAllAppsList.added = new ArrayList<AppInfo>();
+            return true;
+        }
 
-            // Post callback on main thread
-            mHandler.post(new Runnable() {
-                public void run() {
-                    final long bindTime = SystemClock.uptimeMillis();
-                    final Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-                    if (callbacks != null) {
-                        callbacks.bindAllApplications(added);
-                        if (DEBUG_LOADERS) {
-                            Log.d(TAG, "bound " + added.size() + " apps in "
-                                + (SystemClock.uptimeMillis() - bindTime) + "ms");
+        /**
+         * Binds the icons of the apps which were bound with a placeholder icon, at the indices
+         * "placeholders" of mBgAllAppsList, as "futures" build them. Each app replaces its
+         * placeholder in mBgAllAppsList and is bound through bindAppsUpdated, in batches of
+         * ALL_APPS_ICON_BATCH_SIZE. Returns false if the loader was stopped.
+         */
+        private boolean bindRenderedIcons(ArrayList<Integer> placeholders,
+                ArrayList<Future<AppInfo>> futures, final Callbacks oldCallbacks) {
+            ArrayList<AppInfo> batch = new ArrayList<AppInfo>(ALL_APPS_ICON_BATCH_SIZE);
+            final int count = placeholders.size();
+            for (int i = 0; i < count; i++) {
+                AppInfo info = getAppInfo(futures, i);
+                if (info == null) {
+                    return false;
+                }
+                // Only the loader changes mBgAllAppsList until it is done
+                mBgAllAppsList.data.set(placeholders.get(i), info);
+                batch.add(info);
+                if (batch.size() == ALL_APPS_ICON_BATCH_SIZE
+                        || (i == count - 1 && !batch.isEmpty())) {
+                    final ArrayList<AppInfo> updated = batch;
+                    batch = new ArrayList<AppInfo>(ALL_APPS_ICON_BATCH_SIZE);
+                    mHandler.post(new Runnable() {
+                        public void run() {
+                            final Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                            if (callbacks != null) {
+                                callbacks.bindAppsUpdated(updated);
+                            }
                         }
-                    } else {
-                        Log.i(TAG, "not binding apps: no Launcher activity");
-                    }
+                    });
                 }
-            });
+            }
+            return true;
+        }
 
-            if (DEBUG_LOADERS) {
-                Log.d(TAG, "Icons processed in "
-                        + (SystemClock.uptimeMillis() - loadTime) + "ms");
+        /**
+         * Returns the result of futures[i], or null after cancelling all the futures if the
+         * loader was stopped.
+         */
+        private AppInfo getAppInfo(ArrayList<Future<AppInfo>> futures, int i) {
+            try {
+                if (!mStopped) {
+                    return futures.get(i).get();
+                }
+            } catch (InterruptedException e) {
+                Log.w(TAG, "interrupted while loading apps", e);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+            for (Future<AppInfo> future : futures) {
+                future.cancel(false);
+            }
+            return null;
+        }
+
+        /**
+         * Starts building the AppInfos of "apps", including their icon bitmaps, on
+         * sAppLoaderPool. The icons are decoded from the persistent cache, or rendered.
+         */
+        private ArrayList<Future<AppInfo>> submitAppInfos(List<LauncherActivityInfoCompat> apps) {
+            final int count = apps.size();
+            ArrayList<Future<AppInfo>> futures = new ArrayList<Future<AppInfo>>(count);
+            for (int i = 0; i < count; i++) {
+                final LauncherActivityInfoCompat app = apps.get(i);
+                // mLabelCache is not thread safe, every task gets a copy of its own label.
+                final HashMap<Object, CharSequence> labelCache =
+                        new HashMap<Object, CharSequence>(2);
+                ComponentName cn = app.getComponentName();
+                if (mLabelCache.containsKey(cn)) {
+                    labelCache.put(cn, mLabelCache.get(cn));
+                }
+                futures.add(sAppLoaderPool.submit(new Callable<AppInfo>() {
+                    @Override
+                    public AppInfo call() {
+                        // This builds the icon bitmaps.
+                        return new AppInfo(mContext, app, app.getUser(), mIconCache, labelCache);
+                    }
+                }));
             }
+            return futures;
         }
 
         public void dumpState() {
@@ -3243,8 +3873,90 @@ public class LauncherModel extends BroadcastReceiver
         }
     }
 
+    /**
+     * Queues a package update. The updates queued within PACKAGE_UPDATES_COALESCE_MS of the
+     * first one are run together: the updates with the same operation and user are merged into
+     * a single task, and the widgets and shortcuts are bound once for all of them.
+     */
     void enqueuePackageUpdated(PackageUpdatedTask task) {
-        sWorker.post(task);
+        synchronized (mPendingPackageUpdates) {
+            if (mergePendingPackageUpdate(mPendingPackageUpdates, task)) {
+                mCoalescedPackageUpdates++;
+            } else {
+                mPendingPackageUpdates.add(task);
+            }
+            if (!mPackageUpdatesFlushScheduled) {
+                mPackageUpdatesFlushScheduled = true;
+                sWorker.postDelayed(mFlushPackageUpdatesRunnable, PACKAGE_UPDATES_COALESCE_MS);
+            }
+        }
+    }
+
+    /**
+     * Merges the task into the last pending task with the same operation and user, unless a task
+     * queued after that one touches the same packages, in which case their order matters.
+     *
+     * @return whether the task was merged, rather than having to be queued
+     */
+    static boolean mergePendingPackageUpdate(ArrayList<PackageUpdatedTask> pendingTasks,
+            PackageUpdatedTask task) {
+        for (int i = pendingTasks.size() - 1; i >= 0; i--) {
+            PackageUpdatedTask pending = pendingTasks.get(i);
+            if (pending.mOp == task.mOp && pending.mUser.equals(task.mUser)) {
+                pending.addPackages(task.mPackages);
+                return true;
+            }
+            if (pending.sharesPackagesWith(task)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private void flushPendingPackageUpdates() {
+        ArrayList<PackageUpdatedTask> tasks;
+        synchronized (mPendingPackageUpdates) {
+            mPackageUpdatesFlushScheduled = false;
+            tasks = new ArrayList<PackageUpdatedTask>(mPendingPackageUpdates);
+            mPendingPackageUpdates.clear();
+        }
+        Callbacks callbacks = null;
+        for (PackageUpdatedTask task : tasks) {
+            Callbacks taskCallbacks = task.update();
+            if (taskCallbacks != null) {
+                callbacks = taskCallbacks;
+            }
+        }
+        if (callbacks != null) {
+            bindPackagesUpdated(mApp.getContext(), callbacks);
+        }
+    }
+
+    /**
+     * Binds the widgets and shortcuts of all the packages, after some of them were updated.
+     */
+    private void bindPackagesUpdated(Context context, final Callbacks callbacks) {
+        final ArrayList<Object> widgetsAndShortcuts =
+                getSortedWidgetsAndShortcuts(context);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Callbacks cb = getCallback();
+                if (callbacks == cb && cb != null) {
+                    callbacks.bindPackagesUpdated(widgetsAndShortcuts);
+                }
+            }
+        });
+
+        // Write all the logs to disk
+        mHandler.post(new Runnable() {
+            public void run() {
+                Callbacks cb = getCallback();
+                if (callbacks == cb && cb != null) {
+                    callbacks.dumpLogsToLocalData();
+                }
+            }
+        });
     }
 
     private class AppsAvailabilityCheck extends BroadcastReceiver {
@@ -3346,7 +4058,7 @@ public class LauncherModel extends BroadcastReceiver
         sWorker.post(r);
     }
 
-    private class PackageUpdatedTask implements Runnable {
+    class PackageUpdatedTask {
         int mOp;
         String[] mPackages;
         UserHandleCompat mUser;
@@ -3364,7 +4076,32 @@ public class LauncherModel extends BroadcastReceiver
             mUser = user;
         }
 
-        public void run() {
+        void addPackages(String[] packages) {
+            LinkedHashSet<String> merged = new LinkedHashSet<String>(Arrays.asList(mPackages));
+            merged.addAll(Arrays.asList(packages));
+            mPackages = merged.toArray(new String[merged.size()]);
+        }
+
+        boolean sharesPackagesWith(PackageUpdatedTask other) {
+            if (!mUser.equals(other.mUser)) {
+                return false;
+            }
+            List<String> packages = Arrays.asList(mPackages);
+            for (String pkg : other.mPackages) {
+                if (packages.contains(pkg)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Updates the model for the packages, and binds the apps and items which changed. The
+         * widgets and shortcuts are bound by the caller.
+         *
+         * @return the callbacks to bind to, or null if there are none
+         */
+        Callbacks update() {
             final Context context = mApp.getContext();
 
             final String[] packages = mPackages;
@@ -3435,6 +4172,7 @@ public class LauncherModel extends BroadcastReceiver
                     }
                     break;
             }
+            mIconCache.setPinnedApps(mBgAllAppsList.data);
 
             ArrayList<AppInfo> added = null;
             ArrayList<AppInfo> modified = null;
@@ -3456,7 +4194,7 @@ public class LauncherModel extends BroadcastReceiver
             final Callbacks callbacks = getCallback();
             if (callbacks == null) {
                 Log.w(TAG, "Nobody to tell about the new app.  Launcher is probably loading.");
-                return;
+                return null;
             }
 
             final HashMap<ComponentName, AppInfo> addedOrUpdatedApps =
@@ -3663,28 +4401,7 @@ public class LauncherModel extends BroadcastReceiver
                     }
                 });
             }
-
-            final ArrayList<Object> widgetsAndShortcuts =
-                    getSortedWidgetsAndShortcuts(context);
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    Callbacks cb = getCallback();
-                    if (callbacks == cb && cb != null) {
-                        callbacks.bindPackagesUpdated(widgetsAndShortcuts);
-                    }
-                }
-            });
-
-            // Write all the logs to disk
-            mHandler.post(new Runnable() {
-                public void run() {
-                    Callbacks cb = getCallback();
-                    if (callbacks == cb && cb != null) {
-                        callbacks.dumpLogsToLocalData();
-                    }
-                }
-            });
+            return callbacks;
         }
     }
 
@@ -3783,16 +4500,18 @@ public class LauncherModel extends BroadcastReceiver
      */
     public ShortcutInfo getShortcutInfo(PackageManager manager, Intent intent,
             UserHandleCompat user, Context context) {
-        return getShortcutInfo(manager, intent, user, context, null, -1, -1, null, false);
+        return getShortcutInfo(manager, intent, user, context, null, ItemInfo.NO_ID, -1, null,
+                false);
     }
 
     /**
      * Make an ShortcutInfo object for a shortcut that is an application.
      *
-     * If c is not null, then it will be used to fill in missing data like the title and icon.
+     * If c is not null, then it will be used to fill in a missing title. If "iconRowId" is not
+     * NO_ID, a missing icon is decoded from that favorites row when the shortcut is bound.
      */
     public ShortcutInfo getShortcutInfo(PackageManager manager, Intent intent,
-            UserHandleCompat user, Context context, Cursor c, int iconIndex, int titleIndex,
+            UserHandleCompat user, Context context, Cursor c, long iconRowId, int titleIndex,
             HashMap<Object, CharSequence> labelCache, boolean allowMissingTarget) {
         if (user == null) {
             Log.d(TAG, "Null user found in getShortcutInfo");
@@ -3822,18 +4541,16 @@ public class LauncherModel extends BroadcastReceiver
         // have icons anyway.
         Bitmap icon = mIconCache.getIcon(componentName, lai, labelCache);
 
-        // the db
-        if (icon == null) {
-            if (c != null) {
-                icon = getIconFromCursor(c, iconIndex, context);
-            }
-        }
-        // the fallback icon
-        if (icon == null) {
-            icon = mIconCache.getDefaultIcon(user);
+        if (icon != null) {
+            info.setIcon(icon);
+        } else if (iconRowId != ItemInfo.NO_ID) {
+            // the db
+            info.iconRowId = iconRowId;
+        } else {
+            // the fallback icon
+            info.setIcon(mIconCache.getDefaultIcon(user));
             info.usingFallbackIcon = true;
         }
-        info.setIcon(icon);
 
         // From the cache.
         if (labelCache != null) {
@@ -3912,7 +4629,7 @@ public class LauncherModel extends BroadcastReceiver
      * Make an ShortcutInfo object for a shortcut that isn't an application.
      */
     private ShortcutInfo getShortcutInfo(Cursor c, Context context,
-            int iconTypeIndex, int iconPackageIndex, int iconResourceIndex, int iconIndex,
+            int iconTypeIndex, int iconPackageIndex, int iconResourceIndex, int idIndex,
             int titleIndex) {
 
         Bitmap icon = null;
@@ -3933,44 +4650,128 @@ public class LauncherModel extends BroadcastReceiver
             info.customIcon = false;
             // the resource
             icon = Utilities.createIconBitmap(packageName, resourceName, mIconCache, context);
-            // the db
-            if (icon == null) {
-                icon = getIconFromCursor(c, iconIndex, context);
-            }
-            // the fallback icon
-            if (icon == null) {
-                icon = mIconCache.getDefaultIcon(info.user);
-                info.usingFallbackIcon = true;
+            if (icon != null) {
+                info.setIcon(icon);
+            } else {
+                // the db, and then the fallback icon, when the shortcut is bound
+                info.iconRowId = c.getLong(idIndex);
             }
             break;
         case LauncherSettings.Favorites.ICON_TYPE_BITMAP:
-            icon = getIconFromCursor(c, iconIndex, context);
-            if (icon == null) {
-                icon = mIconCache.getDefaultIcon(info.user);
-                info.customIcon = false;
-                info.usingFallbackIcon = true;
-            } else {
-                info.customIcon = true;
-            }
+            // Decoded when the shortcut is bound, which falls back to the default icon
+            info.customIcon = true;
+            info.iconRowId = c.getLong(idIndex);
             break;
         default:
-            icon = mIconCache.getDefaultIcon(info.user);
+            info.setIcon(mIconCache.getDefaultIcon(info.user));
             info.usingFallbackIcon = true;
             info.customIcon = false;
             break;
         }
-        info.setIcon(icon);
         return info;
     }
 
-    Bitmap getIconFromCursor(Cursor c, int iconIndex, Context context) {
-        @SuppressWarnings("all") // suppress dead code warning
-        final boolean debug = false;
-        if (debug) {
-            Log.d(TAG, "getIconFromCursor app="
-                    + c.getString(c.getColumnIndexOrThrow(LauncherSettings.Favorites.TITLE)));
+    /**
+     * Reads the icon blobs of the favorites rows of "infos", with a single query.
+     * @return the blobs by row id
+     */
+    private static HashMap<Long, byte[]> loadIconBlobs(Context context,
+            Collection<ShortcutInfo> infos, boolean pendingIcons) {
+        HashSet<Long> ids = new HashSet<Long>();
+        for (ShortcutInfo info : infos) {
+            long id = pendingIcons ? info.iconRowId : info.id;
+            if (id != ItemInfo.NO_ID) {
+                ids.add(id);
+            }
+        }
+        HashMap<Long, byte[]> blobs = new HashMap<Long, byte[]>();
+        if (ids.isEmpty()) {
+            return blobs;
+        }
+        Cursor c = context.getContentResolver().query(
+                LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION,
+                new String[] { LauncherSettings.Favorites._ID, LauncherSettings.Favorites.ICON },
+                LauncherSettings.Favorites._ID + " IN (" + TextUtils.join(",", ids) + ")",
+                null, null);
+        if (c == null) {
+            return blobs;
+        }
+        try {
+            while (c.moveToNext()) {
+                blobs.put(c.getLong(0), c.getBlob(1));
+            }
+        } finally {
+            c.close();
+        }
+        return blobs;
+    }
+
+    private static HashMap<Long, byte[]> loadIconBlobs(Context context,
+            Collection<ShortcutInfo> infos) {
+        return loadIconBlobs(context, infos, false);
+    }
+
+    /**
+     * Decodes the icons which loadWorkspace left in the database, see
+     * {@link ShortcutInfo#iconRowId}, reading their rows with a single query. Icons which
+     * cannot be decoded are replaced with the default icon.
+     */
+    static void loadDbIcons(Context context, Collection<ShortcutInfo> infos) {
+        synchronized (sDbIconsLock) {
+            HashMap<Long, byte[]> blobs = loadIconBlobs(context, infos, true);
+            HashMap<Long, Bitmap> icons = new HashMap<Long, Bitmap>();
+            IconCache iconCache = LauncherAppState.getInstance().getIconCache();
+            for (ShortcutInfo info : infos) {
+                long rowId = info.iconRowId;
+                if (rowId == ItemInfo.NO_ID) {
+                    continue;
+                }
+                Bitmap icon = icons.get(rowId);
+                if (icon == null) {
+                    icon = decodeIconBlob(blobs.get(rowId), context);
+                    icons.put(rowId, icon);
+                }
+                if (icon != null) {
+                    info.setIcon(icon);
+                    info.usingFallbackIcon = false;
+                } else {
+                    info.setIcon(iconCache.getDefaultIcon(info.user));
+                    info.usingFallbackIcon = true;
+                    info.customIcon = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes the icon which loadWorkspace left in the database for "info" on the worker thread,
+     * and rebinds the shortcut, for a shortcut which was shown before its icon was decoded.
+     */
+    void loadDbIconInBackground(final ShortcutInfo info) {
+        final Callbacks callbacks = getCallback();
+        sWorker.post(new Runnable() {
+            public void run() {
+                // An icon decoded meanwhile is skipped, but the view still shows the default one
+                loadDbIcons(mApp.getContext(), Collections.singletonList(info));
+                final ArrayList<ShortcutInfo> updated = new ArrayList<ShortcutInfo>();
+                updated.add(info);
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        Callbacks cb = getCallback();
+                        if (callbacks == cb && cb != null) {
+                            callbacks.bindShortcutsChanged(updated,
+                                    new ArrayList<ShortcutInfo>(), info.user);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private static Bitmap decodeIconBlob(byte[] data, Context context) {
+        if (data == null) {
+            return null;
         }
-        byte[] data = c.getBlob(iconIndex);
         try {
             return Utilities.createIconBitmap(
                     BitmapFactory.decodeByteArray(data, 0, data.length), context);
@@ -3979,6 +4780,70 @@ public class LauncherModel extends BroadcastReceiver
         }
     }
 
+    /**
+     * Sorts the items by container, screen, cellY and cellX, keeping the order of equal items.
+     * The sort keys are computed once per item, and the items are ordered by a stable counting
+     * sort on each key, least significant first. Every key is replaced by its rank among the
+     * distinct values of that key, so any container or screen id can be used.
+     */
+    static <T extends ItemInfo> void sortItemsSpatially(ArrayList<T> items) {
+        final int count = items.size();
+        if (count < 2) {
+            return;
+        }
+        long[][] keys = new long[4][count];
+        for (int i = 0; i < count; i++) {
+            ItemInfo item = items.get(i);
+            keys[0][i] = item.cellX;
+            keys[1][i] = item.cellY;
+            keys[2][i] = item.screenId;
+            keys[3][i] = item.container;
+        }
+
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        int[] scratch = new int[count];
+        for (long[] key : keys) {
+            countingSort(order, scratch, key);
+            int[] sorted = scratch;
+            scratch = order;
+            order = sorted;
+        }
+
+        Object[] unsorted = items.toArray();
+        for (int i = 0; i < count; i++) {
+            @SuppressWarnings("unchecked")
+            T item = (T) unsorted[order[i]];
+            items.set(i, item);
+        }
+    }
+
+    /**
+     * Stable counting sort of the indices in "order" by the rank of their key, into "out".
+     * There are only a few distinct values of each key, one per container, screen, row or
+     * column, so ranking them is linear in the number of items.
+     */
+    private static void countingSort(int[] order, int[] out, long[] key) {
+        LongSparseArray<Boolean> distinct = new LongSparseArray<Boolean>();
+        for (long value : key) {
+            distinct.put(value, Boolean.TRUE);
+        }
+        int[] ranks = new int[key.length];
+        int[] starts = new int[distinct.size() + 1];
+        for (int i = 0; i < key.length; i++) {
+            ranks[i] = distinct.indexOfKey(key[i]);
+            starts[ranks[i] + 1]++;
+        }
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+        for (int index : order) {
+            out[starts[ranks[index]]++] = index;
+        }
+    }
+
     /**
      * Attempts to find an AppWidgetProviderInfo that matches the given component.
      */
@@ -4042,8 +4907,7 @@ public class LauncherModel extends BroadcastReceiver
         return info;
     }
 
-    boolean queueIconToBeChecked(HashMap<Object, byte[]> cache, ShortcutInfo info, Cursor c,
-            int iconIndex) {
+    boolean queueIconToBeChecked(HashSet<ShortcutInfo> cache, ShortcutInfo info) {
         // If apps can't be on SD, don't even bother.
         if (!mAppsCanBeOnRemoveableStorage) {
             return false;
@@ -4054,8 +4918,8 @@ public class LauncherModel extends BroadcastReceiver
         // into the DB.  We do this so when we're loading, if the
         // package manager can't find an icon (for example because
         // the app is on SD) then we can use that instead.
-        if (!info.customIcon && !info.usingFallbackIcon) {
-            cache.put(info, c.getBlob(iconIndex));
+        if (!info.customIcon && !info.usingFallbackIcon && info.iconRowId == ItemInfo.NO_ID) {
+            cache.add(info);
             return true;
         }
         return false;
@@ -4097,12 +4961,10 @@ public class LauncherModel extends BroadcastReceiver
     }
 
     public static final Comparator<AppInfo> getAppNameComparator() {
-        final Collator collator = Collator.getInstance();
         return new Comparator<AppInfo>() {
             public final int compare(AppInfo a, AppInfo b) {
                 if (a.user.equals(b.user)) {
-                    int result = collator.compare(a.title.toString().trim(),
-                            b.title.toString().trim());
+                    int result = a.getCollationKey().compareTo(b.getCollationKey());
                     if (result == 0) {
                         result = a.componentName.compareTo(b.componentName);
                     }
@@ -4116,13 +4978,11 @@ public class LauncherModel extends BroadcastReceiver
         };
     }
     public static final Comparator<AppInfo> getAppLaunchCountComparator(final Stats stats) {
-        final Collator collator = Collator.getInstance();
         return new Comparator<AppInfo>() {
             public final int compare(AppInfo a, AppInfo b) {
                 int result = stats.launchCount(b.intent) - stats.launchCount(a.intent);
                 if (result == 0) {
-                    result = collator.compare(a.title.toString().trim(),
-                            b.title.toString().trim());
+                    result = a.getCollationKey().compareTo(b.getCollationKey());
                     if (result == 0) {
                         result = a.componentName.compareTo(b.componentName);
                     }
@@ -4149,33 +5009,38 @@ public class LauncherModel extends BroadcastReceiver
     public static class ShortcutNameComparator implements Comparator<LauncherActivityInfoCompat> {
         private Collator mCollator;
         private HashMap<Object, CharSequence> mLabelCache;
+        // The collation keys of the labels, made once per sort
+        private HashMap<ComponentName, CollationKey> mKeyCache =
+                new HashMap<ComponentName, CollationKey>();
         ShortcutNameComparator(PackageManager pm) {
             mLabelCache = new HashMap<Object, CharSequence>();
-            mCollator = Collator.getInstance();
+            mCollator = Utilities.getCollator();
         }
         ShortcutNameComparator(HashMap<Object, CharSequence> labelCache) {
             mLabelCache = labelCache;
-            mCollator = Collator.getInstance();
+            mCollator = Utilities.getCollator();
         }
         public final int compare(LauncherActivityInfoCompat a, LauncherActivityInfoCompat b) {
-            String labelA, labelB;
-            ComponentName keyA = a.getComponentName();
-            ComponentName keyB = b.getComponentName();
-            if (mLabelCache.containsKey(keyA)) {
-                labelA = mLabelCache.get(keyA).toString();
-            } else {
-                labelA = a.getLabel().toString().trim();
-
-                mLabelCache.put(keyA, labelA);
-            }
-            if (mLabelCache.containsKey(keyB)) {
-                labelB = mLabelCache.get(keyB).toString();
-            } else {
-                labelB = b.getLabel().toString().trim();
+            return getCollationKey(a).compareTo(getCollationKey(b));
+        }
+        private CollationKey getCollationKey(LauncherActivityInfoCompat info) {
+            ComponentName key = info.getComponentName();
+            CollationKey collationKey = mKeyCache.get(key);
+            if (collationKey == null) {
+                String label;
+                if (mLabelCache.containsKey(key)) {
+                    label = mLabelCache.get(key).toString();
+                } else {
+                    label = info.getLabel().toString().trim();
 
-                mLabelCache.put(keyB, labelB);
+                    mLabelCache.put(key, label);
+                }
+                synchronized (mCollator) {
+                    collationKey = mCollator.getCollationKey(label);
+                }
+                mKeyCache.put(key, collationKey);
             }
-            return mCollator.compare(labelA, labelB);
+            return collationKey;
         }
     };
     public static class WidgetAndShortcutNameComparator implements Comparator<Object> {
@@ -4223,6 +5088,12 @@ public class LauncherModel extends BroadcastReceiver
         AppInfo.dumpApplicationInfoList(TAG, "mAllAppsList.added", mBgAllAppsList.added);
         AppInfo.dumpApplicationInfoList(TAG, "mAllAppsList.removed", mBgAllAppsList.removed);
         AppInfo.dumpApplicationInfoList(TAG, "mAllAppsList.modified", mBgAllAppsList.modified);
+        mIconCache.dumpState();
+        LoaderTrace.dumpState();
+        synchronized (mPendingPackageUpdates) {
+            Log.d(TAG, "pending package updates=" + mPendingPackageUpdates.size()
+                    + " coalesced=" + mCoalescedPackageUpdates);
+        }
         if (mLoaderTask != null) {
             mLoaderTask.dumpState();
         } else {
@@ -55,13 +55,16 @@ import java.io.File;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 public class LauncherProvider extends ContentProvider {
     private static final String TAG = "Launcher.LauncherProvider";
     private static final boolean LOGD = false;
 
-    private static final int DATABASE_VERSION = 21;
+    private static final int DATABASE_VERSION = 22;
 
     static final String OLD_AUTHORITY = "com.android.launcher2.settings";
     static final String AUTHORITY = ProviderConfig.AUTHORITY;
@@ -79,6 +82,24 @@ public class LauncherProvider extends ContentProvider {
 
     private static final String URI_PARAM_IS_EXTERNAL_ADD = "isExternalAdd";
 
+    // The queries which filter the favorites or the screens, see findFullTableScans. Queries
+    // which read every row, like the loader and the backup of a single user, are left out.
+    private static final String[] HOT_QUERIES = {
+            // deleteFolderContentsFromDatabase, and the items of a folder
+            "SELECT _id FROM favorites WHERE container=1",
+            // The items of a screen
+            "SELECT _id FROM favorites WHERE container=-100 AND screen=1",
+            // removeOrphanedItems
+            "SELECT _id FROM favorites WHERE container=-100"
+                    + " AND screen NOT IN (SELECT _id FROM workspaceScreens)",
+            // AppWidgetsRestoredReceiver
+            "SELECT _id FROM favorites WHERE appWidgetId=1",
+            // The items of a user
+            "SELECT _id FROM favorites WHERE profileId=0",
+            // The rank of a screen
+            "SELECT screenRank FROM workspaceScreens WHERE _id=1",
+    };
+
     private LauncherProviderChangeListener mListener;
 
     /**
@@ -92,6 +113,15 @@ public class LauncherProvider extends ContentProvider {
     private DatabaseHelper mOpenHelper;
     private static boolean sJustLoadedFromOldDb;
 
+    // Journal of the favorites changed by this process, see getChangedItemIds. Maps item ids to
+    // the journal position of their last change.
+    private final HashMap<Long, Long> mJournal = new HashMap<Long, Long>();
+    private long mJournalPosition;
+    // Changes before this position were not journaled
+    private long mJournalStart;
+    // Past this many changed items, the callers are better off reading all the favorites
+    private static final int MAX_JOURNAL_SIZE = 500;
+
     @Override
     public boolean onCreate() {
         final Context context = getContext();
@@ -145,6 +175,125 @@ public class LauncherProvider extends ContentProvider {
         return db.insert(table, nullColumnHack, values);
     }
 
+    /**
+     * Inserts rows in a table with compiled statements, one for every set of columns, which are
+     * reused by all the rows with the same columns. It must be used within a transaction, and
+     * closed afterwards. Rows which fail are skipped and remembered for {@link #logFailures}.
+     */
+    private static class BulkInserter {
+        private final DatabaseHelper mHelper;
+        private final SQLiteDatabase mDb;
+        private final String mTable;
+        private final boolean mIsScreens;
+        private final HashMap<String, SQLiteStatement> mStatements =
+                new HashMap<String, SQLiteStatement>();
+        private final StringBuilder mColumns = new StringBuilder();
+
+        private int mRows;
+        private final ArrayList<Integer> mFailedRows = new ArrayList<Integer>();
+        private SQLException mFirstError;
+
+        BulkInserter(DatabaseHelper helper, SQLiteDatabase db, String table) {
+            mHelper = helper;
+            mDb = db;
+            mTable = table;
+            mIsScreens = TABLE_WORKSPACE_SCREENS.equals(table);
+        }
+
+        /**
+         * Inserts a row, which must have an id, and returns its row id or -1 if it failed.
+         */
+        long insert(ContentValues values) {
+            if (values == null) {
+                throw new RuntimeException("Error: attempting to insert null values");
+            }
+            Long id = values.getAsLong(LauncherSettings.ChangeLogColumns._ID);
+            if (id == null) {
+                throw new RuntimeException(
+                        "Error: attempting to add item without specifying an id");
+            }
+            final int row = mRows++;
+
+            Set<Map.Entry<String, Object>> entries = values.valueSet();
+            mColumns.setLength(0);
+            for (Map.Entry<String, Object> e : entries) {
+                mColumns.append(mColumns.length() == 0 ? "" : ",").append(e.getKey());
+            }
+            String columns = mColumns.toString();
+            long rowId = -1;
+            try {
+                SQLiteStatement statement = mStatements.get(columns);
+                if (statement == null) {
+                    statement = compile(columns, entries.size());
+                    mStatements.put(columns, statement);
+                }
+                int index = 1;
+                for (Map.Entry<String, Object> e : entries) {
+                    bind(statement, index++, e.getValue());
+                }
+                rowId = statement.executeInsert();
+            } catch (SQLException e) {
+                if (mFirstError == null) {
+                    mFirstError = e;
+                }
+            }
+
+            if (rowId < 0) {
+                mFailedRows.add(row);
+            } else if (mIsScreens) {
+                mHelper.mMaxScreenId = Math.max(id, mHelper.mMaxScreenId);
+            } else {
+                mHelper.mMaxItemId = Math.max(id, mHelper.mMaxItemId);
+            }
+            return rowId;
+        }
+
+        private SQLiteStatement compile(String columns, int count) {
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(mTable)
+                    .append(" (").append(columns).append(") VALUES (");
+            for (int i = 0; i < count; i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            return mDb.compileStatement(sql.append(")").toString());
+        }
+
+        private static void bind(SQLiteStatement statement, int index, Object value) {
+            if (value == null) {
+                statement.bindNull(index);
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) value);
+            } else if (value instanceof Float || value instanceof Double) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                statement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else {
+                statement.bindString(index, value.toString());
+            }
+        }
+
+        /** Returns the number of rows inserted so far. */
+        int getInsertedCount() {
+            return mRows - mFailedRows.size();
+        }
+
+        /** Logs the index of every row which failed, and the first error. */
+        void logFailures() {
+            if (!mFailedRows.isEmpty()) {
+                Log.w(TAG, "Inserted " + getInsertedCount() + " of " + mRows + " rows into "
+                        + mTable + ", failed rows: " + mFailedRows, mFirstError);
+            }
+        }
+
+        void close() {
+            for (SQLiteStatement statement : mStatements.values()) {
+                statement.close();
+            }
+            mStatements.clear();
+        }
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues initialValues) {
         SqlArguments args = new SqlArguments(uri);
@@ -161,6 +310,9 @@ public class LauncherProvider extends ContentProvider {
         addModifiedTime(initialValues);
         final long rowId = dbInsertAndCheck(mOpenHelper, db, args.table, null, initialValues);
         if (rowId <= 0) return null;
+        if (TABLE_FAVORITES.equals(args.table)) {
+            journalItem(rowId);
+        }
 
         uri = ContentUris.withAppendedId(uri, rowId);
         sendNotify(uri);
@@ -169,27 +321,39 @@ public class LauncherProvider extends ContentProvider {
     }
 
 
+    /**
+     * Inserts the rows with compiled statements, in a single transaction. Rows which fail are
+     * skipped and logged, the others are still inserted.
+     *
+     * @return the number of rows inserted
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         SqlArguments args = new SqlArguments(uri);
+        final boolean isFavorites = TABLE_FAVORITES.equals(args.table);
 
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        BulkInserter inserter = new BulkInserter(mOpenHelper, db, args.table);
         db.beginTransaction();
         try {
             int numValues = values.length;
             for (int i = 0; i < numValues; i++) {
                 addModifiedTime(values[i]);
-                if (dbInsertAndCheck(mOpenHelper, db, args.table, null, values[i]) < 0) {
-                    return 0;
+                long rowId = inserter.insert(values[i]);
+                if (rowId >= 0 && isFavorites) {
+                    journalItem(rowId);
                 }
             }
             db.setTransactionSuccessful();
         } finally {
+            inserter.close();
             db.endTransaction();
         }
 
-        sendNotify(uri);
-        return values.length;
+        inserter.logFailures();
+        int inserted = inserter.getInsertedCount();
+        if (inserted > 0) sendNotify(uri);
+        return inserted;
     }
 
     @Override
@@ -211,6 +375,7 @@ public class LauncherProvider extends ContentProvider {
         SqlArguments args = new SqlArguments(uri, selection, selectionArgs);
 
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        journalItems(db, args);
         int count = db.delete(args.table, args.where, args.args);
         if (count > 0) sendNotify(uri);
 
@@ -223,6 +388,7 @@ public class LauncherProvider extends ContentProvider {
 
         addModifiedTime(values);
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        journalItems(db, args);
         int count = db.update(args.table, values, args.where, args.args);
         if (count > 0) sendNotify(uri);
 
@@ -246,10 +412,89 @@ public class LauncherProvider extends ContentProvider {
         values.put(LauncherSettings.ChangeLogColumns.MODIFIED, System.currentTimeMillis());
     }
 
+    /**
+     * Returns the current position of the favorites journal, to pass to
+     * {@link #getChangedItemIds} later.
+     */
+    public long getJournalPosition() {
+        synchronized (mJournal) {
+            return mJournalPosition;
+        }
+    }
+
+    /**
+     * Returns the ids of the favorites inserted, updated or deleted since the journal position
+     * "since", or null if some of these changes were not journaled, in which case all the
+     * favorites must be read again.
+     */
+    public HashSet<Long> getChangedItemIds(long since) {
+        synchronized (mJournal) {
+            if (since < mJournalStart || since > mJournalPosition) {
+                return null;
+            }
+            HashSet<Long> ids = new HashSet<Long>();
+            for (Map.Entry<Long, Long> e : mJournal.entrySet()) {
+                if (e.getValue() > since) {
+                    ids.add(e.getKey());
+                }
+            }
+            return ids;
+        }
+    }
+
+    private void journalItem(long id) {
+        synchronized (mJournal) {
+            if (mJournal.size() >= MAX_JOURNAL_SIZE && !mJournal.containsKey(id)) {
+                invalidateJournal();
+            } else {
+                mJournal.put(id, ++mJournalPosition);
+            }
+        }
+    }
+
+    /**
+     * Journals the favorites about to be updated or deleted with "args".
+     */
+    private void journalItems(SQLiteDatabase db, SqlArguments args) {
+        if (!TABLE_FAVORITES.equals(args.table)) {
+            return;
+        }
+        if (TextUtils.isEmpty(args.where)) {
+            invalidateJournal();
+            return;
+        }
+        Cursor c = db.query(args.table, new String[] { LauncherSettings.Favorites._ID },
+                args.where, args.args, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                journalItem(c.getLong(0));
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Forgets the journal, for changes which are not made through this provider's methods.
+     */
+    private void invalidateJournal() {
+        synchronized (mJournal) {
+            mJournal.clear();
+            mJournalStart = ++mJournalPosition;
+        }
+    }
+
     public long generateNewItemId() {
         return mOpenHelper.generateNewItemId();
     }
 
+    /**
+     * Returns the hot queries which scan a whole table, and logs them.
+     */
+    ArrayList<String> findFullTableScans() {
+        return mOpenHelper.findFullTableScans(mOpenHelper.getWritableDatabase());
+    }
+
     public void updateMaxItemId(long id) {
         mOpenHelper.updateMaxItemId(id);
     }
@@ -288,6 +533,7 @@ public class LauncherProvider extends ContentProvider {
      * Clears all the data for a fresh start.
      */
     synchronized public void createEmptyDB() {
+        invalidateJournal();
         mOpenHelper.createEmptyDB(mOpenHelper.getWritableDatabase());
     }
 
@@ -311,6 +557,7 @@ public class LauncherProvider extends ContentProvider {
 
         if (sp.getBoolean(EMPTY_DATABASE_CREATED, false)) {
             Log.d(TAG, "loading default workspace");
+            invalidateJournal();
 
             AutoInstallsLayout loader = AutoInstallsLayout.get(getContext(),
                     mOpenHelper.mAppWidgetHost, mOpenHelper);
@@ -352,6 +599,7 @@ public class LauncherProvider extends ContentProvider {
     }
 
     public void migrateLauncher2Shortcuts() {
+        invalidateJournal();
         mOpenHelper.migrateLauncher2Shortcuts(mOpenHelper.getWritableDatabase(),
                 Uri.parse(getContext().getString(R.string.old_launcher_provider_uri)));
     }
@@ -369,6 +617,7 @@ public class LauncherProvider extends ContentProvider {
 
     public void deleteDatabase() {
         // Are you sure? (y/n)
+        invalidateJournal();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final File dbFile = new File(db.getPath());
         mOpenHelper.close();
@@ -378,16 +627,33 @@ public class LauncherProvider extends ContentProvider {
         mOpenHelper = new DatabaseHelper(getContext());
     }
 
+    /**
+     * Switches to the database "name", or back to the launcher database when it is null. Only for
+     * the tests and benchmarks, which must not change the workspace of the user.
+     */
+    void useDatabase(String name) {
+        invalidateJournal();
+        mOpenHelper.close();
+        mOpenHelper = name == null ? new DatabaseHelper(getContext())
+                : new DatabaseHelper(getContext(), name);
+    }
+
     private static class DatabaseHelper extends SQLiteOpenHelper implements LayoutParserCallback {
         private final Context mContext;
         private final AppWidgetHost mAppWidgetHost;
         private long mMaxItemId = -1;
         private long mMaxScreenId = -1;
+        // Inserts the items of the layout being loaded by loadFavorites
+        private BulkInserter mLayoutInserter;
 
         private boolean mNewDbCreated = false;
 
         DatabaseHelper(Context context) {
-            super(context, LauncherFiles.LAUNCHER_DB, null, DATABASE_VERSION);
+            this(context, LauncherFiles.LAUNCHER_DB);
+        }
+
+        DatabaseHelper(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
             mContext = context;
             mAppWidgetHost = new AppWidgetHost(context, Launcher.APPWIDGET_HOST_ID);
 
@@ -454,6 +720,14 @@ public class LauncherProvider extends ContentProvider {
                     ",hidden INTEGER DEFAULT 0" +
                     ");");
             addWorkspacesTable(db);
+            addIndexes(db);
+
+            if (!LauncherFiles.LAUNCHER_DB.equals(getDatabaseName())) {
+                // A test database starts empty, and leaves the widgets and the flags of the
+                // launcher database alone
+                mMaxItemId = initializeMaxItemId(db);
+                return;
+            }
 
             // Database was just created, so wipe any previous widgets
             if (mAppWidgetHost != null) {
@@ -503,6 +777,48 @@ public class LauncherProvider extends ContentProvider {
                     ");");
         }
 
+        /**
+         * Adds the indexes used by the queries which filter the favorites by container and
+         * screen, widget id or user, and the screens by id.
+         */
+        private void addIndexes(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS favorites_container_screen ON "
+                    + TABLE_FAVORITES + " (container, screen);");
+            db.execSQL("CREATE INDEX IF NOT EXISTS favorites_appWidgetId ON "
+                    + TABLE_FAVORITES + " (appWidgetId);");
+            db.execSQL("CREATE INDEX IF NOT EXISTS favorites_profileId ON "
+                    + TABLE_FAVORITES + " (profileId);");
+            db.execSQL("CREATE INDEX IF NOT EXISTS workspaceScreens_id ON "
+                    + TABLE_WORKSPACE_SCREENS + " (_id);");
+        }
+
+        /**
+         * Runs EXPLAIN QUERY PLAN on the {@link #HOT_QUERIES}, and returns those which scan a
+         * whole table, with the offending step of their plan.
+         */
+        ArrayList<String> findFullTableScans(SQLiteDatabase db) {
+            ArrayList<String> fullScans = new ArrayList<String>();
+            for (String query : HOT_QUERIES) {
+                Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + query, null);
+                try {
+                    int detailIndex = c.getColumnIndexOrThrow("detail");
+                    while (c.moveToNext()) {
+                        String detail = c.getString(detailIndex);
+                        if (detail != null && detail.startsWith("SCAN")
+                                && !detail.contains("INDEX")) {
+                            fullScans.add(query + ": " + detail);
+                        }
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+            for (String fullScan : fullScans) {
+                Log.w(TAG, "Full table scan in " + fullScan);
+            }
+            return fullScans;
+        }
+
         private void removeOrphanedItems(SQLiteDatabase db) {
             // Delete items directly on the workspace who's screen id doesn't exist
             //  "DELETE FROM favorites WHERE screen NOT IN (SELECT _id FROM workspaceScreens)
@@ -646,11 +962,13 @@ public class LauncherProvider extends ContentProvider {
 
             int total = 0;
             if (i > 0) {
+                BulkInserter inserter = new BulkInserter(this, db, TABLE_FAVORITES);
                 db.beginTransaction();
                 try {
                     int numValues = rows.length;
                     for (i = 0; i < numValues; i++) {
-                        if (dbInsertAndCheck(this, db, TABLE_FAVORITES, null, rows[i]) < 0) {
+                        if (inserter.insert(rows[i]) < 0) {
+                            inserter.logFailures();
                             return 0;
                         } else {
                             total++;
@@ -658,6 +976,7 @@ public class LauncherProvider extends ContentProvider {
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    inserter.close();
                     db.endTransaction();
                 }
             }
@@ -936,6 +1255,18 @@ public class LauncherProvider extends ContentProvider {
                 version = 21;
             }
 
+            if (version < 22) {
+                // Add the secondary indexes. They only speed up the queries, so the data is kept
+                // even if they cannot be created.
+                try {
+                    addIndexes(db);
+                    findFullTableScans(db);
+                } catch (SQLException ex) {
+                    Log.e(TAG, ex.getMessage(), ex);
+                }
+                version = 22;
+            }
+
             if (version != DATABASE_VERSION) {
                 Log.w(TAG, "Destroying all old data.");
                 db.execSQL("DROP TABLE IF EXISTS " + TABLE_FAVORITES);
@@ -1138,6 +1469,9 @@ public class LauncherProvider extends ContentProvider {
 
         @Override
         public long insertAndCheck(SQLiteDatabase db, ContentValues values) {
+            if (mLayoutInserter != null) {
+                return mLayoutInserter.insert(values);
+            }
             return dbInsertAndCheck(this, db, TABLE_FAVORITES, null, values);
         }
 
@@ -1394,8 +1728,22 @@ public class LauncherProvider extends ContentProvider {
 
         private int loadFavorites(SQLiteDatabase db, AutoInstallsLayout loader) {
             ArrayList<Long> screenIds = new ArrayList<Long>();
-            // TODO: Use multiple loaders with fall-back and transaction.
-            int count = loader.loadLayout(db, screenIds);
+            // TODO: Use multiple loaders with fall-back.
+            // The items of the layout are inserted in a single transaction, with compiled
+            // statements. A layout which fails half way keeps the items added so far, as before.
+            int count;
+            BulkInserter inserter = new BulkInserter(this, db, TABLE_FAVORITES);
+            mLayoutInserter = inserter;
+            db.beginTransaction();
+            try {
+                count = loader.loadLayout(db, screenIds);
+                db.setTransactionSuccessful();
+            } finally {
+                mLayoutInserter = null;
+                inserter.close();
+                db.endTransaction();
+            }
+            inserter.logFailures();
 
             // Add the screens specified by the items above
             Collections.sort(screenIds);
@@ -1667,12 +2015,13 @@ public class LauncherProvider extends ContentProvider {
                         }
 
                         if (allItems.size() > 0) {
+                            BulkInserter inserter = new BulkInserter(this, db, TABLE_FAVORITES);
                             db.beginTransaction();
                             try {
                                 for (ContentValues row: allItems) {
                                     if (row == null) continue;
-                                    if (dbInsertAndCheck(this, db, TABLE_FAVORITES, null, row)
-                                            < 0) {
+                                    if (inserter.insert(row) < 0) {
+                                        inserter.logFailures();
                                         return;
                                     } else {
                                         count++;
@@ -1680,6 +2029,7 @@ public class LauncherProvider extends ContentProvider {
                                 }
                                 db.setTransactionSuccessful();
                             } finally {
+                                inserter.close();
                                 db.endTransaction();
                             }
                         }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+import android.view.Choreographer;
+
+/**
+ * Timings of the loader phases. Phases which start and end on the same thread also show up as
+ * systrace sections. The last RING_SIZE timings are kept in memory and logged by
+ * {@link LauncherModel#dumpState}.
+ */
+class LoaderTrace {
+    private static final String TAG = "Launcher.LoaderTrace";
+
+    static final String LOAD_WORKSPACE = "loadWorkspace";
+    static final String LOAD_ALL_APPS = "loadAllApps";
+    // Building the labels of all apps, until they are bound with the icons already in memory
+    static final String LOAD_ALL_APPS_LABELS = "loadAllApps:labels";
+    // Decoding or rendering the other icons on the app loader pool, and binding them
+    static final String LOAD_ALL_APPS_ICONS = "loadAllApps:icons";
+    static final String BIND_WORKSPACE = "bindWorkspace";
+    static final String BIND_CURRENT_PAGE = "bindWorkspace:currentPage";
+    static final String BIND_OTHER_PAGES = "bindWorkspace:otherPages";
+    static final String BIND_SYNCHRONOUS_PAGE = "runBindSynchronousPage";
+    // Number of frames dropped on the main thread while the workspace was bound
+    static final String BIND_DROPPED_FRAMES = "bindWorkspace:droppedFrames";
+
+    private static final int RING_SIZE = 64;
+
+    private static final String[] sPhases = new String[RING_SIZE];
+    private static final long[] sStartTimes = new long[RING_SIZE];
+    private static final long[] sDurations = new long[RING_SIZE];
+    // Whether the slot holds a count rather than a duration
+    private static final boolean[] sIsCount = new boolean[RING_SIZE];
+    // Index of the next slot to write, and number of slots written
+    private static int sNext;
+    private static int sCount;
+
+    /**
+     * Starts a phase on this thread, which must be ended with {@link #end} on the same thread.
+     * @return the start time of the phase
+     */
+    static long begin(String phase) {
+        Trace.beginSection(phase);
+        return SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Ends the phase started by {@link #begin} on this thread.
+     */
+    static void end(String phase, long startTime) {
+        Trace.endSection();
+        record(phase, startTime);
+    }
+
+    /**
+     * Records a phase which started at "startTime" and ended now, on any thread. It does not
+     * show up in systrace.
+     */
+    static void record(String phase, long startTime) {
+        recordLocked(phase, startTime, SystemClock.uptimeMillis() - startTime, false);
+    }
+
+    /**
+     * Records a count measured during a phase which started at "startTime", such as
+     * {@link #BIND_DROPPED_FRAMES}.
+     */
+    static void recordCount(String phase, long startTime, long count) {
+        recordLocked(phase, startTime, count, true);
+    }
+
+    private static synchronized void recordLocked(String phase, long startTime, long value,
+            boolean isCount) {
+        sPhases[sNext] = phase;
+        sStartTimes[sNext] = startTime;
+        sDurations[sNext] = value;
+        sIsCount[sNext] = isCount;
+        sNext = (sNext + 1) % RING_SIZE;
+        sCount = Math.min(sCount + 1, RING_SIZE);
+    }
+
+    /**
+     * Returns the duration in ms, or the count, of the last recorded run of the phase, or -1.
+     */
+    static synchronized long getLastDuration(String phase) {
+        for (int i = 1; i <= sCount; i++) {
+            int index = (sNext - i + RING_SIZE) % RING_SIZE;
+            if (phase.equals(sPhases[index])) {
+                return sDurations[index];
+            }
+        }
+        return -1;
+    }
+
+    static synchronized void dumpState() {
+        Log.d(TAG, "last " + sCount + " loader phases:");
+        for (int i = sCount; i >= 1; i--) {
+            int index = (sNext - i + RING_SIZE) % RING_SIZE;
+            Log.d(TAG, "  " + sPhases[index] + " at " + sStartTimes[index] + ": "
+                    + sDurations[index] + (sIsCount[index] ? "" : "ms"));
+        }
+    }
+
+    /**
+     * Counts the frames dropped on the main thread between {@link #start} and {@link #stop},
+     * from the gaps between the frame callbacks. Only used on the main thread.
+     */
+    static class FrameDropCounter implements Choreographer.FrameCallback {
+        private final long mFrameIntervalNanos;
+        private boolean mRunning;
+        private long mLastFrameTimeNanos;
+        private long mDroppedFrames;
+
+        FrameDropCounter(float refreshRate) {
+            mFrameIntervalNanos = (long) (1000000000 / (refreshRate > 0 ? refreshRate : 60));
+        }
+
+        void start() {
+            mDroppedFrames = 0;
+            mLastFrameTimeNanos = 0;
+            if (!mRunning) {
+                mRunning = true;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        /** Stops counting, and returns the number of dropped frames. */
+        long stop() {
+            if (mRunning) {
+                mRunning = false;
+                Choreographer.getInstance().removeFrameCallback(this);
+            }
+            return mDroppedFrames;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) {
+                return;
+            }
+            if (mLastFrameTimeNanos != 0) {
+                long skipped = (frameTimeNanos - mLastFrameTimeNanos + mFrameIntervalNanos / 2)
+                        / mFrameIntervalNanos - 1;
+                if (skipped > 0) {
+                    mDroppedFrames += skipped;
+                }
+            }
+            mLastFrameTimeNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+/**
+ * Single file store of the icons restored from a backup, see {@link IconCache#preloadIcon}.
+ *
+ * The file is a log of records, each made of a component key followed by the PNG data of its
+ * icon or by a deletion marker. The offset table of the live records is built when the file is
+ * first used, and icons are read from a read only mapping of the file. Once deleted and
+ * replaced records take more room than the live ones, the file is compacted.
+ */
+class PreloadedIconStore {
+    private static final String TAG = "Launcher.PreloadedIconStore";
+    private static final boolean DEBUG = false;
+
+    private static final int MAGIC = 0x4c504943;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int DELETED = -1;
+    // Files smaller than this are not worth compacting.
+    private static final int MIN_COMPACT_SIZE = 64 * 1024;
+
+    // Icons used to be stored in one file per component, named with this prefix and the key.
+    private static final String LEGACY_FILE_PREFIX = "icon_";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static PreloadedIconStore sInstance;
+
+    /**
+     * Position of the icon data of a live record in the file.
+     */
+    private static class Record {
+        final int offset;
+        final int length;
+        // Size of the whole record, including the key.
+        final int size;
+
+        Record(int offset, int length, int size) {
+            this.offset = offset;
+            this.length = length;
+            this.size = size;
+        }
+    }
+
+    private final File mFilesDir;
+    private final File mFile;
+    private final HashMap<String, Record> mRecords = new HashMap<String, Record>();
+    private boolean mLoaded;
+    // Length of the valid part of the file, anything after it is a torn write.
+    private int mFileLength;
+    private int mLiveBytes;
+    // Mapping of the file, dropped whenever the file changes.
+    private MappedByteBuffer mMap;
+
+    static synchronized PreloadedIconStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PreloadedIconStore(context.getApplicationContext().getFilesDir());
+        }
+        return sInstance;
+    }
+
+    private PreloadedIconStore(File filesDir) {
+        mFilesDir = filesDir;
+        mFile = new File(filesDir, LauncherFiles.PRELOADED_ICONS);
+    }
+
+    private static String getKey(ComponentName component) {
+        return component.flattenToShortString().replace(File.separatorChar, '_');
+    }
+
+    /**
+     * Stores the PNG encoded icon of the component, replacing any previous one, and compacts the
+     * file if it is mostly replaced records.
+     */
+    synchronized void put(ComponentName component, byte[] png) {
+        loadLocked();
+        appendLocked(getKey(component), png);
+        compactIfNeededLocked();
+    }
+
+    /**
+     * Returns the icon of the component, or null if there is none.
+     */
+    synchronized Bitmap get(ComponentName component) {
+        loadLocked();
+        final String key = getKey(component);
+        Record record = mRecords.get(key);
+        if (record == null) {
+            if (DEBUG) Log.d(TAG, "there is no restored icon for: " + key);
+            return null;
+        }
+        try {
+            if (mMap == null) {
+                mMap = mapLocked();
+            }
+            byte[] data = new byte[record.length];
+            ByteBuffer buffer = mMap.duplicate();
+            buffer.position(record.offset);
+            buffer.get(data);
+            Bitmap icon = BitmapFactory.decodeByteArray(data, 0, data.length);
+            if (icon == null) {
+                Log.w(TAG, "failed to decode pre-load icon for " + key);
+            }
+            return icon;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to read pre-load icon for: " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Removes the icon of the component, compacting the file if it is mostly dead records.
+     */
+    synchronized void remove(ComponentName component) {
+        loadLocked();
+        final String key = getKey(component);
+        if (!mRecords.containsKey(key)) {
+            return;
+        }
+        appendLocked(key, null);
+        if (mRecords.isEmpty()) {
+            if (mFile.delete()) {
+                mFileLength = 0;
+                mLiveBytes = 0;
+                mMap = null;
+            }
+        } else {
+            compactIfNeededLocked();
+        }
+    }
+
+    private void compactIfNeededLocked() {
+        if (mFileLength > MIN_COMPACT_SIZE
+                && mFileLength - HEADER_SIZE - mLiveBytes > mLiveBytes) {
+            compactLocked();
+        }
+    }
+
+    private MappedByteBuffer mapLocked() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            // The mapping stays valid once the file is closed
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mFileLength);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Builds the offset table from the file, and moves the icons of the legacy per component
+     * files into it.
+     */
+    private void loadLocked() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        if (mFile.exists()) {
+            try {
+                mFileLength = (int) mFile.length();
+                scanLocked(mapLocked());
+            } catch (IOException e) {
+                Log.w(TAG, "failed to read " + mFile, e);
+                mRecords.clear();
+                mLiveBytes = 0;
+                mFileLength = 0;
+            }
+        }
+
+        String[] legacyFiles = mFilesDir.list();
+        if (legacyFiles != null) {
+            for (String name : legacyFiles) {
+                if (name.startsWith(LEGACY_FILE_PREFIX)) {
+                    migrateLegacyFileLocked(name);
+                }
+            }
+        }
+    }
+
+    private void scanLocked(MappedByteBuffer map) {
+        if (mFileLength < HEADER_SIZE || map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+            Log.w(TAG, "discarding unknown file " + mFile);
+            mFileLength = 0;
+            return;
+        }
+
+        int pos = HEADER_SIZE;
+        while (pos + 4 <= mFileLength) {
+            int keyLength = map.getInt(pos);
+            // Lengths are compared against the bytes left, as a corrupt length could overflow
+            if (keyLength <= 0 || keyLength > mFileLength - pos - 8) {
+                break;
+            }
+            byte[] keyBytes = new byte[keyLength];
+            ByteBuffer buffer = map.duplicate();
+            buffer.position(pos + 4);
+            buffer.get(keyBytes);
+            String key = new String(keyBytes, UTF_8);
+            int dataLength = map.getInt(pos + 4 + keyLength);
+            if (dataLength < DELETED || dataLength > mFileLength - pos - 8 - keyLength) {
+                break;
+            }
+            int size = 8 + keyLength + Math.max(dataLength, 0);
+            Record old = mRecords.remove(key);
+            if (old != null) {
+                mLiveBytes -= old.size;
+            }
+            if (dataLength != DELETED) {
+                mRecords.put(key, new Record(pos + 8 + keyLength, dataLength, size));
+                mLiveBytes += size;
+            }
+            pos += size;
+        }
+        if (pos != mFileLength) {
+            Log.w(TAG, "ignoring " + (mFileLength - pos) + " bytes at the end of " + mFile);
+            mFileLength = pos;
+        }
+        mMap = map;
+    }
+
+    private void migrateLegacyFileLocked(String name) {
+        File legacyFile = new File(mFilesDir, name);
+        byte[] data = new byte[(int) legacyFile.length()];
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(legacyFile);
+            int read = 0;
+            while (read < data.length) {
+                int count = in.read(data, read, data.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            if (read == data.length) {
+                appendLocked(name.substring(LEGACY_FILE_PREFIX.length()), data);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to migrate " + name, e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.d(TAG, "failed to close " + name, e);
+                }
+            }
+        }
+        legacyFile.delete();
+    }
+
+    /**
+     * Appends a record for "key" at the end of the file. A null "data" marks it deleted.
+     */
+    private void appendLocked(String key, byte[] data) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int dataLength = data != null ? data.length : 0;
+        int size = 8 + keyBytes.length + dataLength;
+        boolean newFile = mFileLength < HEADER_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(size + (newFile ? HEADER_SIZE : 0));
+        if (newFile) {
+            buffer.putInt(MAGIC).putInt(VERSION);
+        }
+        buffer.putInt(keyBytes.length).put(keyBytes);
+        buffer.putInt(data != null ? dataLength : DELETED);
+        if (data != null) {
+            buffer.put(data);
+        }
+
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "rw");
+            int start = newFile ? 0 : mFileLength;
+            // Drop any torn write left at the end of the file
+            file.setLength(start);
+            file.seek(start);
+            file.write(buffer.array());
+            mFileLength = start + buffer.capacity();
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write pre-load icon for " + key, e);
+            return;
+        } finally {
+            mMap = null;
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    Log.d(TAG, "failed to close " + mFile, e);
+                }
+            }
+        }
+
+        Record old = mRecords.remove(key);
+        if (old != null) {
+            mLiveBytes -= old.size;
+        }
+        if (data != null) {
+            mRecords.put(key, new Record(mFileLength - dataLength, dataLength, size));
+            mLiveBytes += size;
+        }
+    }
+
+    /**
+     * Rewrites the file with only the live records.
+     */
+    private void compactLocked() {
+        if (DEBUG) Log.d(TAG, "compacting " + mFileLength + " bytes to " + mLiveBytes);
+        File tmp = new File(mFilesDir, LauncherFiles.PRELOADED_ICONS + ".tmp");
+        HashMap<String, Record> records = new HashMap<String, Record>();
+        RandomAccessFile file = null;
+        try {
+            if (mMap == null) {
+                mMap = mapLocked();
+            }
+            file = new RandomAccessFile(tmp, "rw");
+            file.setLength(0);
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+            int pos = HEADER_SIZE;
+            for (Entry<String, Record> e : mRecords.entrySet()) {
+                Record record = e.getValue();
+                byte[] keyBytes = e.getKey().getBytes(UTF_8);
+                byte[] data = new byte[record.length];
+                ByteBuffer buffer = mMap.duplicate();
+                buffer.position(record.offset);
+                buffer.get(data);
+
+                file.writeInt(keyBytes.length);
+                file.write(keyBytes);
+                file.writeInt(data.length);
+                file.write(data);
+                records.put(e.getKey(),
+                        new Record(pos + 8 + keyBytes.length, data.length, record.size));
+                pos += record.size;
+            }
+            file.close();
+            file = null;
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("failed to rename " + tmp);
+            }
+            mRecords.clear();
+            mRecords.putAll(records);
+            mFileLength = pos;
+            mMap = null;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to compact " + mFile, e);
+            tmp.delete();
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    Log.d(TAG, "failed to close " + tmp, e);
+                }
+            }
+        }
+    }
+}
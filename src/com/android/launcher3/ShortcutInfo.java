@@ -21,12 +21,14 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
+import android.os.Looper;
 import android.util.Log;
 
 import com.android.launcher3.compat.UserHandleCompat;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 
 /**
  * Represents a launchable icon on the workspaces and in folders.
@@ -85,7 +87,15 @@ public class ShortcutInfo extends ItemInfo {
     /**
      * The application icon.
      */
-    private Bitmap mIcon;
+    private volatile Bitmap mIcon;
+
+    /**
+     * Id of the favorites row holding the icon, when the loader left it to be decoded on bind,
+     * see {@link LauncherModel#loadDbIcons}. NO_ID once the icon is known. It is only cleared
+     * after mIcon is set, and is checked again under {@link LauncherModel#sDbIconsLock} before
+     * the icon is decoded or replaced.
+     */
+    volatile long iconRowId = NO_ID;
 
     /**
      * Indicates that the icon is disabled due to safe mode restrictions.
@@ -154,7 +164,11 @@ public class ShortcutInfo extends ItemInfo {
             iconResource.packageName = info.iconResource.packageName;
             iconResource.resourceName = info.iconResource.resourceName;
         }
-        mIcon = info.mIcon; // TODO: should make a copy here.  maybe we don't need this ctor at all
+        synchronized (LauncherModel.sDbIconsLock) {
+            // TODO: should make a copy here.  maybe we don't need this ctor at all
+            mIcon = info.mIcon;
+            iconRowId = info.iconRowId;
+        }
         customIcon = info.customIcon;
         flags = info.flags;
         firstInstallTime = info.firstInstallTime;
@@ -174,18 +188,42 @@ public class ShortcutInfo extends ItemInfo {
 
     public void setIcon(Bitmap b) {
         mIcon = b;
+        iconRowId = NO_ID;
     }
 
     public Bitmap getIcon(IconCache iconCache) {
-        if (mIcon == null) {
-            updateIcon(iconCache);
+        if (iconRowId == NO_ID) {
+            Bitmap icon = mIcon;
+            if (icon != null) {
+                return icon;
+            }
+        }
+        synchronized (LauncherModel.sDbIconsLock) {
+            if (iconRowId != NO_ID) {
+                if (Looper.myLooper() == Looper.getMainLooper()) {
+                    // bindWorkspace decodes the icons before binding, so this item reached the
+                    // UI some other way. Do not query the provider on the main thread: show the
+                    // default icon until the worker decodes it and rebinds the item.
+                    LauncherAppState.getInstance().getModel().loadDbIconInBackground(this);
+                    return iconCache.getDefaultIcon(user);
+                }
+                LauncherModel.loadDbIcons(LauncherAppState.getInstance().getContext(),
+                        Collections.singletonList(this));
+            }
+            if (mIcon == null) {
+                updateIcon(iconCache);
+            }
+            return mIcon;
         }
-        return mIcon;
     }
 
     public void updateIcon(IconCache iconCache) {
-        mIcon = iconCache.getIcon(promisedIntent != null ? promisedIntent : intent, user);
-        usingFallbackIcon = iconCache.isDefaultIcon(mIcon, user);
+        Bitmap icon = iconCache.getIcon(promisedIntent != null ? promisedIntent : intent, user);
+        boolean fallback = iconCache.isDefaultIcon(icon, user);
+        synchronized (LauncherModel.sDbIconsLock) {
+            setIcon(icon);
+            usingFallbackIcon = fallback;
+        }
     }
 
     @Override
@@ -199,12 +237,20 @@ public class ShortcutInfo extends ItemInfo {
                 : (intent != null ? intent.toUri(0) : null);
         values.put(LauncherSettings.BaseLauncherColumns.INTENT, uri);
 
+        // An icon which is still in this item's row does not need to be written again
+        long rowId = iconRowId;
+        boolean iconInRow = rowId != NO_ID && rowId == id;
+        if (rowId != NO_ID && !iconInRow) {
+            LauncherModel.loadDbIcons(context, Collections.singletonList(this));
+        }
         if (customIcon) {
             values.put(LauncherSettings.BaseLauncherColumns.ICON_TYPE,
                     LauncherSettings.BaseLauncherColumns.ICON_TYPE_BITMAP);
-            writeBitmap(values, mIcon);
+            if (!iconInRow) {
+                writeBitmap(values, mIcon);
+            }
         } else {
-            if (!usingFallbackIcon) {
+            if (!usingFallbackIcon && !iconInRow) {
                 writeBitmap(values, mIcon);
             }
             values.put(LauncherSettings.BaseLauncherColumns.ICON_TYPE,
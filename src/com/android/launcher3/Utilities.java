@@ -52,8 +52,11 @@ import android.util.SparseArray;
 import android.view.View;
 import android.widget.Toast;
 
+import java.text.Collator;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Various utilities shared amongst the Launcher's classes.
@@ -71,57 +74,105 @@ public final class Utilities {
         sCanvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
                 Paint.FILTER_BITMAP_FLAG));
     }
+    // Rendered unread count badges, keyed by their text.
+    private static final int MAX_UNREAD_BADGES = 32;
+    private static final HashMap<String, Bitmap> sUnreadBadges = new HashMap<String, Bitmap>();
+
     static int sColors[] = { 0xffff0000, 0xff00ff00, 0xff0000ff };
     static int sColorIndex = 0;
 
     static int[] sLoc0 = new int[2];
     static int[] sLoc1 = new int[2];
 
+    // Collator of sCollatorLocale, shared so that the collation keys made with it compare
+    private static Collator sCollator;
+    private static Locale sCollatorLocale;
+
     // To turn on these properties, type
     // adb shell setprop log.tag.PROPERTY_NAME [VERBOSE | SUPPRESS]
     static final String FORCE_ENABLE_ROTATION_PROPERTY = "launcher_force_rotate";
     public static boolean sForceEnableRotation = isPropertyEnabled(FORCE_ENABLE_ROTATION_PROPERTY);
 
-   static Bitmap createIconBitmap(Drawable icon, Context context, int count) {
-       Bitmap b = createIconBitmap(icon, context);
-
-       if (!LauncherApplication.LAUNCHER_SHOW_UNREAD_NUMBER || count <= 0) {
-           return b;
-       }
-
-       int textureWidth = b.getWidth();
-       final Resources resources = context.getResources();
-       final Canvas canvas = sCanvas;
-       canvas.setBitmap(b);
-
-       float textsize = resources.getDimension(R.dimen.infomation_count_textsize);
-       Paint countPaint = new Paint(Paint.ANTI_ALIAS_FLAG|Paint.DEV_KERN_TEXT_FLAG);
-       countPaint.setColor(Color.WHITE);
-       countPaint.setTextSize(textsize);
-
-       String text = String.valueOf(count);
-       if (count >= 1000) {
-           text = "999+";
-       }
-
-       float count_hight = resources.getDimension(R.dimen.infomation_count_height);
-       float padding = resources.getDimension(R.dimen.infomation_count_padding);
-       float radius = resources.getDimension(R.dimen.infomation_count_circle_radius);
-       int  textwidth = (int) (countPaint.measureText(text) + 1);
-       float width =textwidth + padding * 2;
-       width = Math.max(width, resources.getDimensionPixelSize(R.dimen.infomation_count_min_width));
-
-       RectF rect = new RectF(textureWidth - width -1, 1, textureWidth - 1, count_hight + 1);
-       Paint paint = new Paint();
-       paint.setAntiAlias(true);
-       paint.setColor(resources.getColor(R.color.infomation_count_circle_color));
-       canvas.drawRoundRect(rect , radius, radius, paint);
-
-       float x = textureWidth - (width + textwidth ) / 2 - 1;
-       float y = textsize;
-       canvas.drawText(text, x, y, countPaint);
-
-       return b;
+    /**
+     * Returns the collator of the current locale, which is replaced when the locale changes.
+     * Collation keys made by different collators must not be compared. Callers synchronize on
+     * the collator to use it.
+     */
+    static synchronized Collator getCollator() {
+        Locale locale = Locale.getDefault();
+        if (sCollator == null || !locale.equals(sCollatorLocale)) {
+            sCollator = Collator.getInstance(locale);
+            sCollatorLocale = locale;
+        }
+        return sCollator;
+    }
+
+    /**
+     * Returns the unread count badge for "count", drawn for icons of the size produced by
+     * {@link #createIconBitmap}, or null if no badge should be shown. Badges are small and
+     * shared by all the icons showing the same count.
+     */
+    static Bitmap getUnreadBadge(Context context, int count) {
+        if (!LauncherApplication.LAUNCHER_SHOW_UNREAD_NUMBER || count <= 0) {
+            return null;
+        }
+        String text = count >= 1000 ? "999+" : String.valueOf(count);
+        synchronized (sUnreadBadges) {
+            Bitmap badge = sUnreadBadges.get(text);
+            if (badge == null) {
+                badge = createUnreadBadge(context, text);
+                if (sUnreadBadges.size() >= MAX_UNREAD_BADGES) {
+                    sUnreadBadges.clear();
+                }
+                sUnreadBadges.put(text, badge);
+            }
+            return badge;
+        }
+    }
+
+    private static Bitmap createUnreadBadge(Context context, String text) {
+        final Resources resources = context.getResources();
+
+        float textsize = resources.getDimension(R.dimen.infomation_count_textsize);
+        Paint countPaint = new Paint(Paint.ANTI_ALIAS_FLAG|Paint.DEV_KERN_TEXT_FLAG);
+        countPaint.setColor(Color.WHITE);
+        countPaint.setTextSize(textsize);
+
+        float count_hight = resources.getDimension(R.dimen.infomation_count_height);
+        float padding = resources.getDimension(R.dimen.infomation_count_padding);
+        float radius = resources.getDimension(R.dimen.infomation_count_circle_radius);
+        int  textwidth = (int) (countPaint.measureText(text) + 1);
+        float width =textwidth + padding * 2;
+        width = Math.max(width, resources.getDimensionPixelSize(R.dimen.infomation_count_min_width));
+
+        // The badge sits 1px inside the top right corner of the icon, see
+        // FastBitmapDrawable#draw.
+        Bitmap b = Bitmap.createBitmap((int) Math.ceil(width), (int) Math.ceil(count_hight + 1),
+                Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(b);
+
+        RectF rect = new RectF(0, 1, width, count_hight + 1);
+        Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setColor(resources.getColor(R.color.infomation_count_circle_color));
+        canvas.drawRoundRect(rect , radius, radius, paint);
+
+        float x = (width - textwidth) / 2;
+        float y = textsize;
+        canvas.drawText(text, x, y, countPaint);
+        canvas.setBitmap(null);
+
+        return b;
+    }
+
+    /**
+     * Returns a FastBitmapDrawable with the icon and its unread count badge, accurately sized.
+     */
+    public static FastBitmapDrawable createIconDrawable(Bitmap icon, Context context,
+            int unreadNum) {
+        FastBitmapDrawable d = createIconDrawable(icon);
+        d.setBadge(getUnreadBadge(context, unreadNum));
+        return d;
     }
 
     /**
@@ -367,6 +418,18 @@ public final class Utilities {
         sIconWidth = sIconHeight = (int) resources.getDimension(R.dimen.app_icon_size);
     }
 
+    /**
+     * Returns the size of the bitmaps produced by {@link #createIconBitmap}.
+     */
+    static int getIconBitmapSize(Context context) {
+        synchronized (sCanvas) {
+            if (sIconWidth == -1) {
+                initStatics(context);
+            }
+            return sIconWidth;
+        }
+    }
+
     public static void setIconSize(int widthPx) {
         sIconWidth = sIconHeight = widthPx;
     }
@@ -18,6 +18,7 @@ package com.android.launcher3.locale;
 
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
 
 import java.util.ArrayList;
 
@@ -32,10 +33,23 @@ import libcore.icu.Transliterator;
 public class HanziToPinyin {
     private static final String TAG = "HanziToPinyin";
 
+    // The unified CJK ideographs, whose pinyin is kept in mHanPinyin
+    private static final char FIRST_HAN = '\u4e00';
+    private static final char LAST_HAN = '\u9fff';
+
+    // Strings transliterated lately, mostly app labels which are bucketed again and again
+    private static final int MAX_TRANSLITERATIONS = 512;
+
     private static HanziToPinyin sInstance;
     private Transliterator mPinyinTransliterator;
     private Transliterator mAsciiTransliterator;
 
+    // The transliteration of each ideograph, filled as they are met. Racing threads at worst
+    // transliterate a character twice, so the table is not locked.
+    private String[] mHanPinyin;
+    private final LruCache<String, String> mTransliterations =
+            new LruCache<String, String>(MAX_TRANSLITERATIONS);
+
     public static class Token {
         /**
          * Separator between target string for each source char
@@ -112,7 +126,7 @@ public class HanziToPinyin {
         }
 
         token.type = Token.PINYIN;
-        token.target = mPinyinTransliterator.transliterate(token.source);
+        token.target = getPinyin(character, token.source);
         if (TextUtils.isEmpty(token.target) ||
                 TextUtils.equals(token.source, token.target)) {
             token.type = Token.UNKNOWN;
@@ -120,11 +134,39 @@ public class HanziToPinyin {
         }
     }
 
+    /**
+     * Returns the pinyin transliteration of the character, looked up in the table of ideographs
+     * once it has been transliterated.
+     */
+    private String getPinyin(char character, String source) {
+        if (character < FIRST_HAN || character > LAST_HAN) {
+            return mPinyinTransliterator.transliterate(source);
+        }
+        String[] table = mHanPinyin;
+        if (table == null) {
+            table = new String[LAST_HAN - FIRST_HAN + 1];
+            mHanPinyin = table;
+        }
+        String pinyin = table[character - FIRST_HAN];
+        if (pinyin == null) {
+            pinyin = mPinyinTransliterator.transliterate(source);
+            table[character - FIRST_HAN] = pinyin;
+        }
+        return pinyin;
+    }
+
     public String transliterate(final String input) {
         if (!hasChineseTransliterator() || TextUtils.isEmpty(input)) {
             return null;
         }
-        return mPinyinTransliterator.transliterate(input);
+        String result = mTransliterations.get(input);
+        if (result == null) {
+            result = mPinyinTransliterator.transliterate(input);
+            if (result != null) {
+                mTransliterations.put(input, result);
+            }
+        }
+        return result;
     }
 
     /**
@@ -474,6 +474,14 @@ public class LocaleUtils {
         return mUtils.getBucketLabel(bucketIndex);
     }
 
+    /**
+     * Returns the extra keys to look the name up with, such as its pinyin spellings in Simplified
+     * Chinese or its romaji in Japanese, or null if the locale has none.
+     */
+    public Iterator<String> getNameLookupKeys(String name, int nameStyle) {
+        return mUtils.getNameLookupKeys(name, nameStyle);
+    }
+
     public String getLabel(String name) {
         return getBucketLabel(getBucketIndex(name));
     }
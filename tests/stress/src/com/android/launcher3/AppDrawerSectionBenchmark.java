@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures how long the app drawer takes to split NUM_APPS synthetic apps into sections and
+ * rows, with titles starting with letters, digits, symbols and several scripts.
+ */
+public class AppDrawerSectionBenchmark extends ActivityInstrumentationTestCase2<Launcher> {
+
+    private static final int[] NUM_APPS = { 100, 500, 2000 };
+    private static final int ITERATIONS = 10;
+    private static final String LOG_TAG = "AppDrawerSectionBenchmark";
+
+    private static final String[] TITLE_STARTS = {
+            "", "", "", "", "1", "#", "É", "中", "あ", "Ж",
+    };
+
+    public AppDrawerSectionBenchmark() {
+        super(Launcher.class);
+    }
+
+    public void testPopulateSections() throws Exception {
+        final Launcher launcher = getActivity();
+        final AppDrawerListAdapter[] adapter = new AppDrawerListAdapter[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                adapter[0] = new AppDrawerListAdapter(launcher);
+            }
+        });
+
+        Random random = new Random(11);
+        for (int numApps : NUM_APPS) {
+            ArrayList<AppInfo> apps = createApps(numApps, random);
+            long bestNs = Long.MAX_VALUE;
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                adapter[0].populateSections(new ArrayList<AppInfo>(apps));
+                bestNs = Math.min(bestNs, SystemClock.elapsedRealtimeNanos() - start);
+            }
+
+            int rows = adapter[0].getItemCount();
+            Log.d(LOG_TAG, numApps + " apps: " + bestNs / 1000 + "us, "
+                    + adapter[0].getSections().length + " sections, " + rows + " rows (best of "
+                    + ITERATIONS + ")");
+            assertTrue(rows > 0);
+        }
+    }
+
+    private static ArrayList<AppInfo> createApps(int count, Random random) {
+        ArrayList<AppInfo> apps = new ArrayList<AppInfo>(count);
+        for (int i = 0; i < count; i++) {
+            String title = TITLE_STARTS[random.nextInt(TITLE_STARTS.length)]
+                    + TestApps.randomTitle(random);
+            apps.add(TestApps.createApp(title, i));
+        }
+        return apps;
+    }
+}
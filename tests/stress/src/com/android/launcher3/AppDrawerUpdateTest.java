@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+
+import com.android.launcher3.compat.TestUsers;
+
+import android.content.ComponentName;
+import android.graphics.Bitmap;
+import android.support.v7.widget.RecyclerView;
+import android.test.ActivityInstrumentationTestCase2;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Checks that adding, updating and removing apps in the app drawer only notifies the rows which
+ * changed, and that the notifications add up to the new rows.
+ */
+public class AppDrawerUpdateTest extends ActivityInstrumentationTestCase2<Launcher> {
+
+    private static final int NUM_APPS = 200;
+    private static final int NUM_UPDATES = 50;
+
+    private AppDrawerListAdapter mAdapter;
+    private int mRowCount;
+    private int mNotifiedRows;
+    private boolean mDataSetChanged;
+
+    public AppDrawerUpdateTest() {
+        super(Launcher.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final Launcher launcher = getActivity();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter = new AppDrawerListAdapter(launcher);
+                mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                    @Override
+                    public void onChanged() {
+                        mDataSetChanged = true;
+                    }
+
+                    @Override
+                    public void onItemRangeChanged(int positionStart, int itemCount) {
+                        assertTrue(positionStart + itemCount <= mRowCount);
+                        mNotifiedRows += itemCount;
+                    }
+
+                    @Override
+                    public void onItemRangeInserted(int positionStart, int itemCount) {
+                        assertTrue(positionStart <= mRowCount);
+                        mRowCount += itemCount;
+                        mNotifiedRows += itemCount;
+                    }
+
+                    @Override
+                    public void onItemRangeRemoved(int positionStart, int itemCount) {
+                        assertTrue(positionStart + itemCount <= mRowCount);
+                        mRowCount -= itemCount;
+                        mNotifiedRows += itemCount;
+                    }
+                });
+            }
+        });
+    }
+
+    public void testNewSectionIsInserted() {
+        final ArrayList<AppInfo> apps = new ArrayList<AppInfo>();
+        for (int i = 0; i < NUM_APPS; i++) {
+            apps.add(TestApps.createApp("Alpha" + i, i));
+        }
+        final ArrayList<AppInfo> added = new ArrayList<AppInfo>();
+        added.add(TestApps.createApp("Zulu", NUM_APPS));
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.setApps(apps);
+                mRowCount = mAdapter.getItemCount();
+                mDataSetChanged = false;
+                mAdapter.addApps(added);
+            }
+        });
+
+        assertFalse(mDataSetChanged);
+        assertEquals(1, mNotifiedRows);
+        assertEquals(mAdapter.getItemCount(), mRowCount);
+
+        mNotifiedRows = 0;
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.removeApps(added);
+            }
+        });
+        assertFalse(mDataSetChanged);
+        assertEquals(1, mNotifiedRows);
+        assertEquals(mAdapter.getItemCount(), mRowCount);
+    }
+
+    public void testAppChangedInPlaceIsNotified() {
+        final ArrayList<AppInfo> apps = new ArrayList<AppInfo>();
+        for (int i = 0; i < NUM_APPS; i++) {
+            apps.add(TestApps.createApp("Alpha" + i, i));
+        }
+        final ArrayList<AppInfo> updated = new ArrayList<AppInfo>();
+        updated.add(apps.get(0));
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.setApps(apps);
+                mRowCount = mAdapter.getItemCount();
+                mDataSetChanged = false;
+                // As AllAppsList.updatePackage does, the same object gets a new icon
+                updated.get(0).iconBitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+                mAdapter.updateApps(updated);
+            }
+        });
+        assertFalse(mDataSetChanged);
+        assertEquals(1, mNotifiedRows);
+
+        mNotifiedRows = 0;
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // A new title which keeps the app in its row
+                updated.get(0).title = "Alpha0 Maps";
+                mAdapter.updateApps(updated);
+            }
+        });
+        assertFalse(mDataSetChanged);
+        assertEquals(1, mNotifiedRows);
+        assertEquals(mAdapter.getItemCount(), mRowCount);
+    }
+
+    public void testUsersAreKeptApart() {
+        ComponentName component = new ComponentName("com.example.maps", "Activity");
+        final AppInfo personal = TestApps.createApp("Maps", component);
+        final AppInfo work = TestApps.createApp("Maps", component, TestUsers.createUser(10));
+        final ArrayList<AppInfo> apps = new ArrayList<AppInfo>();
+        apps.add(personal);
+        apps.add(work);
+        final ArrayList<AppInfo> updated = new ArrayList<AppInfo>();
+        updated.add(TestApps.createApp("Maps Work", component, work.user));
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.setApps(apps);
+                mRowCount = mAdapter.getItemCount();
+                mAdapter.updateApps(updated);
+            }
+        });
+        ArrayList<AppInfo> shown = mAdapter.getApps();
+        assertEquals(2, shown.size());
+        assertTrue(shown.contains(personal));
+        assertTrue(shown.contains(updated.get(0)));
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.removeApps(updated);
+            }
+        });
+        shown = mAdapter.getApps();
+        assertEquals(1, shown.size());
+        assertSame(personal, shown.get(0));
+    }
+
+    public void testRandomUpdates() {
+        final Random random = new Random(7);
+        final ArrayList<AppInfo> apps = new ArrayList<AppInfo>();
+        for (int i = 0; i < NUM_APPS; i++) {
+            apps.add(TestApps.createApp(TestApps.randomTitle(random), i));
+        }
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.setApps(new ArrayList<AppInfo>(apps));
+                mRowCount = mAdapter.getItemCount();
+                mDataSetChanged = false;
+            }
+        });
+
+        for (int i = 0; i < NUM_UPDATES; i++) {
+            final ArrayList<AppInfo> changed = new ArrayList<AppInfo>();
+            final int op = random.nextInt(3);
+            if (op == 0) {
+                changed.add(TestApps.createApp(TestApps.randomTitle(random), NUM_APPS + i));
+            } else {
+                AppInfo app = apps.get(random.nextInt(apps.size()));
+                changed.add(op == 1 ? app
+                        : TestApps.createApp(TestApps.randomTitle(random), app.componentName));
+            }
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    if (op == 0) {
+                        mAdapter.addApps(changed);
+                    } else if (op == 1) {
+                        mAdapter.removeApps(changed);
+                    } else {
+                        mAdapter.updateApps(changed);
+                    }
+                }
+            });
+            if (op == 1) {
+                apps.removeAll(changed);
+            } else {
+                apps.addAll(changed);
+            }
+            assertEquals(mAdapter.getItemCount(), mRowCount);
+        }
+        assertFalse(mDataSetChanged);
+        // A change touches at most the rows of two sections
+        assertTrue(mNotifiedRows < NUM_UPDATES * mRowCount / 2);
+    }
+}
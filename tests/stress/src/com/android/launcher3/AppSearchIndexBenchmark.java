@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+
+import com.android.launcher3.locale.HanziToPinyin;
+import com.android.launcher3.locale.LocaleSet;
+import com.android.launcher3.locale.LocaleUtils;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the lookup of every keystroke of NUM_QUERIES labels in an {@link AppSearchIndex} of
+ * NUM_APPS apps, and checks what the index finds as apps are added and removed.
+ */
+public class AppSearchIndexBenchmark extends TestCase {
+
+    private static final int NUM_APPS = 1000;
+    private static final int NUM_QUERIES = 100;
+    private static final String LOG_TAG = "AppSearchIndexBenchmark";
+
+    private int mNextId;
+
+    @Override
+    protected void tearDown() throws Exception {
+        LocaleUtils.setLocales(LocaleSet.getDefault());
+        super.tearDown();
+    }
+
+    public void testKeystrokeLookup() {
+        Random random = new Random(5);
+        ArrayList<AppInfo> apps = new ArrayList<AppInfo>(NUM_APPS);
+        for (int i = 0; i < NUM_APPS; i++) {
+            apps.add(createApp(randomTitle(random)));
+        }
+        AppSearchIndex index = new AppSearchIndex();
+        long start = SystemClock.elapsedRealtimeNanos();
+        index.setApps(apps);
+        long buildNs = SystemClock.elapsedRealtimeNanos() - start;
+
+        int lookups = 0;
+        long lookupNs = 0;
+        long worstNs = 0;
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            AppInfo app = apps.get(random.nextInt(apps.size()));
+            String title = app.title.toString();
+            for (int length = 1; length <= title.length(); length++) {
+                start = SystemClock.elapsedRealtimeNanos();
+                ArrayList<AppInfo> found = index.search(title.substring(0, length));
+                long ns = SystemClock.elapsedRealtimeNanos() - start;
+                lookups++;
+                lookupNs += ns;
+                worstNs = Math.max(worstNs, ns);
+                assertTrue(found.contains(app));
+            }
+        }
+        Log.d(LOG_TAG, NUM_APPS + " apps: build=" + buildNs / 1000 + "us, " + lookups
+                + " lookups avg=" + lookupNs / lookups / 1000 + "us worst=" + worstNs / 1000
+                + "us");
+    }
+
+    public void testWordsAndAccents() {
+        AppSearchIndex index = new AppSearchIndex();
+        AppInfo maps = createApp("Google Maps");
+        AppInfo screen = createApp("Écran");
+        index.setApps(list(maps, screen));
+
+        assertEquals(list(maps), index.search("maps"));
+        assertEquals(list(maps), index.search("GOOGLE M"));
+        assertEquals(list(screen), index.search("ecr"));
+        assertEquals(list(screen), index.search("écr"));
+        assertTrue(index.search("oogle").isEmpty());
+        assertEquals(2, index.search(" ").size());
+    }
+
+    public void testAddAndRemove() {
+        AppSearchIndex index = new AppSearchIndex();
+        AppInfo camera = createApp("Camera");
+        index.setApps(list(camera));
+        assertEquals(list(camera), index.search("cam"));
+
+        // Renamed by an update
+        AppInfo renamed = TestApps.createApp("Photos", camera.componentName);
+        index.addApps(list(renamed));
+        assertTrue(index.search("cam").isEmpty());
+        assertEquals(list(renamed), index.search("pho"));
+        assertEquals(1, index.size());
+
+        index.removeApps(list(camera));
+        assertTrue(index.search("pho").isEmpty());
+        assertEquals(0, index.size());
+    }
+
+    public void testPinyin() {
+        LocaleUtils.setLocale(Locale.SIMPLIFIED_CHINESE);
+        if (!HanziToPinyin.getInstance().hasChineseTransliterator()) {
+            return;
+        }
+        AppSearchIndex index = new AppSearchIndex();
+        // "Zhi fu bao"
+        AppInfo app = createApp("支付宝");
+        index.setApps(list(app));
+
+        assertEquals(list(app), index.search("zhifu"));
+        assertEquals(list(app), index.search("zfb"));
+        assertEquals(list(app), index.search("支付"));
+    }
+
+    private static ArrayList<AppInfo> list(AppInfo... apps) {
+        ArrayList<AppInfo> list = new ArrayList<AppInfo>();
+        for (AppInfo app : apps) {
+            list.add(app);
+        }
+        return list;
+    }
+
+    private static String randomTitle(Random random) {
+        StringBuilder title = new StringBuilder();
+        int words = 1 + random.nextInt(3);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                title.append(' ');
+            }
+            int length = 3 + random.nextInt(8);
+            for (int c = 0; c < length; c++) {
+                title.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return title.toString();
+    }
+
+    private AppInfo createApp(String title) {
+        return TestApps.createApp(title, mNextId++);
+    }
+}
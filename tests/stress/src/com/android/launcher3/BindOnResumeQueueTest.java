@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Checks that {@link BindOnResumeQueue} replays only the net effect of the postponed binds, in
+ * order, when a stream of updates arrives while the launcher is paused.
+ */
+public class BindOnResumeQueueTest extends TestCase {
+
+    private static final int NUM_UPDATES = 10000;
+    private static final int NUM_APPS = 20;
+
+    private final ArrayList<String> mLog = new ArrayList<String>();
+
+    private final BindOnResumeQueue.ItemsBinder<String> mUpdateBinder =
+            new BindOnResumeQueue.ItemsBinder<String>() {
+                @Override
+                public void bindItems(ArrayList<String> items) {
+                    mLog.add("update" + items);
+                }
+            };
+
+    private Runnable log(final String message) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mLog.add(message);
+            }
+        };
+    }
+
+    public void testRepeatedUpdatesCollapse() {
+        BindOnResumeQueue queue = new BindOnResumeQueue();
+        for (int i = 0; i < NUM_UPDATES; i++) {
+            String app = "app" + (i % NUM_APPS);
+            queue.addItem(mUpdateBinder, app, app);
+        }
+        assertEquals(NUM_UPDATES, queue.getQueuedCount());
+        assertEquals(NUM_UPDATES - NUM_APPS, queue.getCollapsedCount());
+
+        queue.run();
+        assertEquals(1, mLog.size());
+        assertTrue(queue.isEmpty());
+    }
+
+    public void testSupersededBindMovesToTheEnd() {
+        BindOnResumeQueue queue = new BindOnResumeQueue();
+        Runnable grid = log("grid");
+        queue.add(grid, grid);
+        queue.add(log("items"));
+        queue.add(grid, grid);
+        queue.run();
+        assertEquals(Arrays.asList("items", "grid"), mLog);
+        assertEquals(1, queue.getCollapsedCount());
+    }
+
+    public void testItemsBatchedBetweenOtherBinds() {
+        BindOnResumeQueue queue = new BindOnResumeQueue();
+        queue.addItem(mUpdateBinder, "a", "a");
+        queue.addItem(mUpdateBinder, "b", "b");
+        queue.add(log("remove c"));
+        queue.addItem(mUpdateBinder, "c", "c");
+        queue.addItem(mUpdateBinder, "a", "a");
+        queue.run();
+        assertEquals(Arrays.asList("update[b]", "remove c", "update[c, a]"), mLog);
+    }
+
+    public void testRemovedItemIsNotReplayed() {
+        BindOnResumeQueue queue = new BindOnResumeQueue();
+        queue.addItem(mUpdateBinder, "a", "a");
+        queue.addItem(mUpdateBinder, "b", "b");
+        queue.removeItem(mUpdateBinder, "a");
+        queue.run();
+        assertEquals(Arrays.asList("update[b]"), mLog);
+        assertEquals(1, queue.getCollapsedCount());
+    }
+}
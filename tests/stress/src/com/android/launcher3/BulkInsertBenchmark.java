@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Measures the rows per second of {@link LauncherProvider#bulkInsert} for imports of NUM_ROWS
+ * favorites, against inserting them one by one, and checks that a failing row does not fail the
+ * others. The rows are added to a separate database, which is deleted afterwards, so neither the
+ * workspace of the user nor the journal of its changes sees them.
+ */
+public class BulkInsertBenchmark extends ActivityInstrumentationTestCase2<Launcher> {
+
+    private static final int NUM_ROWS = 1000;
+    private static final int ITERATIONS = 3;
+    private static final long SCREEN_ID = Integer.MAX_VALUE;
+    private static final long LOAD_TIMEOUT_MS = 60000;
+    private static final String LOG_TAG = "BulkInsertBenchmark";
+    private static final String BENCHMARK_DB = "launcher_benchmark.db";
+
+    private final ArrayList<Long> mItemIds = new ArrayList<Long>();
+
+    public BulkInsertBenchmark() {
+        super(Launcher.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getActivity();
+        // Let the launcher finish loading from its own database before switching
+        LauncherModel model = LauncherAppState.getInstance().getModel();
+        long deadline = SystemClock.uptimeMillis() + LOAD_TIMEOUT_MS;
+        while (!model.isAllAppsLoaded() || model.isLoadingWorkspace()) {
+            assertTrue("loader timed out", SystemClock.uptimeMillis() < deadline);
+            SystemClock.sleep(50);
+        }
+        getActivity().deleteDatabase(BENCHMARK_DB);
+        LauncherAppState.getLauncherProvider().useDatabase(BENCHMARK_DB);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteItems();
+        LauncherAppState.getLauncherProvider().useDatabase(null);
+        getActivity().deleteDatabase(BENCHMARK_DB);
+        super.tearDown();
+    }
+
+    public void testBulkInsertRate() throws Exception {
+        ContentResolver cr = getActivity().getContentResolver();
+        long bulkNs = Long.MAX_VALUE;
+        long singleNs = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            ContentValues[] rows = createRows(NUM_ROWS);
+            long start = SystemClock.elapsedRealtimeNanos();
+            assertEquals(NUM_ROWS, cr.bulkInsert(
+                    LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION, rows));
+            bulkNs = Math.min(bulkNs, SystemClock.elapsedRealtimeNanos() - start);
+            deleteItems();
+
+            rows = createRows(NUM_ROWS);
+            start = SystemClock.elapsedRealtimeNanos();
+            for (ContentValues row : rows) {
+                assertNotNull(cr.insert(LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION,
+                        row));
+            }
+            singleNs = Math.min(singleNs, SystemClock.elapsedRealtimeNanos() - start);
+            deleteItems();
+        }
+
+        Log.d(LOG_TAG, NUM_ROWS + " rows: bulkInsert=" + bulkNs / 1000000 + "ms ("
+                + NUM_ROWS * 1000000000L / Math.max(bulkNs, 1) + " rows/s) insert="
+                + singleNs / 1000000 + "ms (" + NUM_ROWS * 1000000000L / Math.max(singleNs, 1)
+                + " rows/s), best of " + ITERATIONS);
+    }
+
+    public void testPartialFailure() throws Exception {
+        ContentResolver cr = getActivity().getContentResolver();
+        ContentValues[] rows = createRows(10);
+        // Reuse the id of an earlier row, which fails on the primary key
+        rows[5].put(LauncherSettings.Favorites._ID,
+                rows[2].getAsLong(LauncherSettings.Favorites._ID));
+
+        assertEquals(9, cr.bulkInsert(LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION,
+                rows));
+        Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI,
+                new String[] { LauncherSettings.Favorites._ID },
+                LauncherSettings.Favorites.SCREEN + "=" + SCREEN_ID, null, null);
+        try {
+            assertEquals(9, c.getCount());
+        } finally {
+            c.close();
+        }
+    }
+
+    private ContentValues[] createRows(int count) {
+        LauncherProvider provider = LauncherAppState.getLauncherProvider();
+        DeviceProfile grid = LauncherAppState.getInstance().getDynamicGrid().getDeviceProfile();
+        int countX = (int) grid.numColumns;
+        ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            long id = provider.generateNewItemId();
+            ContentValues values = new ContentValues();
+            values.put(LauncherSettings.Favorites._ID, id);
+            values.put(LauncherSettings.Favorites.TITLE, "Shortcut " + i);
+            values.put(LauncherSettings.Favorites.INTENT,
+                    "#Intent;action=android.intent.action.VIEW;S.row=" + i + ";end");
+            values.put(LauncherSettings.Favorites.ITEM_TYPE,
+                    LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT);
+            values.put(LauncherSettings.Favorites.CONTAINER,
+                    LauncherSettings.Favorites.CONTAINER_DESKTOP);
+            values.put(LauncherSettings.Favorites.SCREEN, SCREEN_ID);
+            values.put(LauncherSettings.Favorites.CELLX, i % countX);
+            values.put(LauncherSettings.Favorites.CELLY, i / countX);
+            values.put(LauncherSettings.Favorites.SPANX, 1);
+            values.put(LauncherSettings.Favorites.SPANY, 1);
+            rows[i] = values;
+            mItemIds.add(id);
+        }
+        return rows;
+    }
+
+    private void deleteItems() {
+        if (!mItemIds.isEmpty()) {
+            getActivity().getContentResolver().delete(
+                    LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION,
+                    LauncherSettings.Favorites._ID + " IN (" + TextUtils.join(",", mItemIds)
+                    + ")", null);
+            mItemIds.clear();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+
+import com.android.launcher3.compat.LauncherActivityInfoCompat;
+import com.android.launcher3.compat.LauncherAppsCompat;
+import com.android.launcher3.compat.UserHandleCompat;
+import com.android.launcher3.compat.UserManagerCompat;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the loader repeatedly against a workspace with NUM_ITEMS shortcuts to NUM_APPS apps, and
+ * logs the median duration of every loader phase. The workspace is loaded from a separate
+ * database, which is deleted afterwards, so the workspace of the user is not changed.
+ */
+public class LoaderBenchmark extends ActivityInstrumentationTestCase2<Launcher> {
+
+    private static final int NUM_ITEMS = 200;
+    private static final int NUM_APPS = 50;
+    private static final int ITERATIONS = 5;
+    private static final long LOAD_TIMEOUT_MS = 60000;
+    private static final String LOG_TAG = "LoaderBenchmark";
+    private static final String BENCHMARK_DB = "launcher_benchmark.db";
+
+    private static final String[] PHASES = {
+            LoaderTrace.LOAD_WORKSPACE,
+            LoaderTrace.BIND_WORKSPACE,
+            LoaderTrace.BIND_CURRENT_PAGE,
+            LoaderTrace.BIND_OTHER_PAGES,
+            LoaderTrace.LOAD_ALL_APPS,
+    };
+
+    private boolean mUsesBenchmarkDb;
+
+    public LoaderBenchmark() {
+        super(Launcher.class);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mUsesBenchmarkDb) {
+            waitForLoader();
+            LauncherAppState.getLauncherProvider().useDatabase(null);
+            getActivity().deleteDatabase(BENCHMARK_DB);
+            reload();
+        }
+        super.tearDown();
+    }
+
+    public void testLoaderPhases() throws Exception {
+        Context context = getActivity();
+        waitForLoader();
+        context.deleteDatabase(BENCHMARK_DB);
+        LauncherAppState.getLauncherProvider().useDatabase(BENCHMARK_DB);
+        mUsesBenchmarkDb = true;
+        addSyntheticItems(context);
+
+        long[][] durations = new long[PHASES.length][ITERATIONS];
+        long[] droppedFrames = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            reload();
+            for (int p = 0; p < PHASES.length; p++) {
+                durations[p][i] = LoaderTrace.getLastDuration(PHASES[p]);
+            }
+            droppedFrames[i] = LoaderTrace.getLastDuration(LoaderTrace.BIND_DROPPED_FRAMES);
+        }
+
+        for (int p = 0; p < PHASES.length; p++) {
+            Arrays.sort(durations[p]);
+            Log.d(LOG_TAG, PHASES[p] + ": median=" + durations[p][ITERATIONS / 2] + "ms min="
+                    + durations[p][0] + "ms max=" + durations[p][ITERATIONS - 1] + "ms ("
+                    + NUM_ITEMS + " items, " + NUM_APPS + " apps)");
+            assertTrue(PHASES[p] + " was not traced", durations[p][0] >= 0);
+        }
+        Arrays.sort(droppedFrames);
+        Log.d(LOG_TAG, "dropped frames during bind: median=" + droppedFrames[ITERATIONS / 2]
+                + " max=" + droppedFrames[ITERATIONS - 1]);
+    }
+
+    /**
+     * Adds NUM_ITEMS shortcuts to the first NUM_APPS apps, filling as many screens as needed.
+     */
+    private void addSyntheticItems(Context context) {
+        UserHandleCompat user = UserHandleCompat.myUserHandle();
+        List<LauncherActivityInfoCompat> apps = LauncherAppsCompat.getInstance(context)
+                .getActivityList(null, user);
+        assertTrue("no launchable activities", apps.size() > 0);
+        int numApps = Math.min(NUM_APPS, apps.size());
+        long serial = UserManagerCompat.getInstance(context).getSerialNumberForUser(user);
+
+        DeviceProfile grid = LauncherAppState.getInstance().getDynamicGrid().getDeviceProfile();
+        int countX = (int) grid.numColumns;
+        int countY = (int) grid.numRows;
+        LauncherProvider provider = LauncherAppState.getLauncherProvider();
+        ContentResolver cr = context.getContentResolver();
+
+        int screenRank = 0;
+        long screenId = -1;
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            int cell = i % (countX * countY);
+            if (cell == 0) {
+                screenId = provider.generateNewScreenId();
+                ContentValues screen = new ContentValues();
+                screen.put(LauncherSettings.WorkspaceScreens._ID, screenId);
+                screen.put(LauncherSettings.WorkspaceScreens.SCREEN_RANK, screenRank++);
+                cr.insert(LauncherSettings.WorkspaceScreens.CONTENT_URI, screen);
+            }
+
+            LauncherActivityInfoCompat app = apps.get(i % numApps);
+            Intent intent = AppInfo.makeLaunchIntent(context, app, user);
+            long id = provider.generateNewItemId();
+            ContentValues values = new ContentValues();
+            values.put(LauncherSettings.Favorites._ID, id);
+            values.put(LauncherSettings.Favorites.TITLE, app.getLabel().toString());
+            values.put(LauncherSettings.Favorites.INTENT, intent.toUri(0));
+            values.put(LauncherSettings.Favorites.ITEM_TYPE,
+                    LauncherSettings.Favorites.ITEM_TYPE_APPLICATION);
+            values.put(LauncherSettings.Favorites.CONTAINER,
+                    LauncherSettings.Favorites.CONTAINER_DESKTOP);
+            values.put(LauncherSettings.Favorites.SCREEN, screenId);
+            values.put(LauncherSettings.Favorites.CELLX, cell % countX);
+            values.put(LauncherSettings.Favorites.CELLY, cell / countX);
+            values.put(LauncherSettings.Favorites.SPANX, 1);
+            values.put(LauncherSettings.Favorites.SPANY, 1);
+            values.put(LauncherSettings.Favorites.PROFILE_ID, serial);
+            cr.insert(LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION, values);
+        }
+    }
+
+    /**
+     * Reloads the workspace and all apps, and waits until both are bound.
+     */
+    private void reload() {
+        final LauncherModel model = LauncherAppState.getInstance().getModel();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                model.resetLoadedState(true, true);
+                model.startLoader(false, PagedView.INVALID_RESTORE_PAGE);
+            }
+        });
+        waitForLoader();
+    }
+
+    /**
+     * Waits until the workspace and all apps are loaded and bound.
+     */
+    private void waitForLoader() {
+        LauncherModel model = LauncherAppState.getInstance().getModel();
+        long deadline = SystemClock.uptimeMillis() + LOAD_TIMEOUT_MS;
+        while (!model.isAllAppsLoaded() || model.isLoadingWorkspace()) {
+            assertTrue("loader timed out", SystemClock.uptimeMillis() < deadline);
+            SystemClock.sleep(50);
+        }
+        getInstrumentation().waitForIdleSync();
+    }
+}
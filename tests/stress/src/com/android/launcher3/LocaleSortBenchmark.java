@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+
+import com.android.launcher3.locale.LocaleSet;
+import com.android.launcher3.locale.LocaleUtils;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures sorting and bucketing NUM_APPS apps by title for ITERATIONS drawer rebuilds, with the
+ * collation keys and buckets cached by {@link AppInfo} against computing them on every call, for
+ * English, Simplified Chinese and Japanese labels. Also checks that both give the same order,
+ * and that the caches follow title and locale changes.
+ */
+public class LocaleSortBenchmark extends TestCase {
+
+    private static final int NUM_APPS = 500;
+    private static final int ITERATIONS = 10;
+    private static final String LOG_TAG = "LocaleSortBenchmark";
+
+    private Locale mDefaultLocale;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultLocale = Locale.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        setLocale(mDefaultLocale);
+        LocaleUtils.setLocales(LocaleSet.getDefault());
+        super.tearDown();
+    }
+
+    public void testEnglish() {
+        runBenchmark(Locale.US, new int[][] { { 'a', 'z' } });
+    }
+
+    public void testSimplifiedChinese() {
+        runBenchmark(Locale.SIMPLIFIED_CHINESE, new int[][] { { 0x4e00, 0x9fa5 } });
+    }
+
+    public void testJapanese() {
+        // Hiragana, katakana and kanji
+        runBenchmark(Locale.JAPAN,
+                new int[][] { { 0x3041, 0x3093 }, { 0x30a1, 0x30f3 }, { 0x4e00, 0x9fa5 } });
+    }
+
+    public void testCachesFollowTitleAndLocale() {
+        setLocale(Locale.US);
+        AppInfo app = TestApps.createApp("Browser", 0);
+        int bucket = app.getBucketIndex();
+        assertSame(app.getCollationKey(), app.getCollationKey());
+
+        app.title = "Zebra";
+        assertFalse(bucket == app.getBucketIndex());
+        assertEquals("Zebra", app.getCollationKey().getSourceString());
+
+        LocaleUtils localeUtils = LocaleUtils.getInstance();
+        Collator collator = Utilities.getCollator();
+        setLocale(Locale.SIMPLIFIED_CHINESE);
+        assertNotSame(localeUtils, LocaleUtils.getInstance());
+        assertNotSame(collator, Utilities.getCollator());
+        assertEquals(LocaleUtils.getInstance().getBucketIndex("Zebra"), app.getBucketIndex());
+    }
+
+    private void runBenchmark(Locale locale, int[][] ranges) {
+        setLocale(locale);
+        Random random = new Random(3);
+        ArrayList<AppInfo> apps = new ArrayList<AppInfo>(NUM_APPS);
+        for (int i = 0; i < NUM_APPS; i++) {
+            apps.add(TestApps.createApp(randomTitle(random, ranges), i));
+        }
+
+        // Every rebuild compares and buckets the raw titles
+        final Collator collator = Collator.getInstance();
+        Comparator<AppInfo> rawComparator = new Comparator<AppInfo>() {
+            @Override
+            public int compare(AppInfo a, AppInfo b) {
+                int result = collator.compare(a.title.toString().trim(),
+                        b.title.toString().trim());
+                return result != 0 ? result : a.componentName.compareTo(b.componentName);
+            }
+        };
+        LocaleUtils localeUtils = LocaleUtils.getInstance();
+        ArrayList<AppInfo> rawSorted = null;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            rawSorted = new ArrayList<AppInfo>(apps);
+            Collections.sort(rawSorted, rawComparator);
+            for (AppInfo app : rawSorted) {
+                localeUtils.getBucketIndex(app.title.toString());
+            }
+        }
+        long rawNs = SystemClock.elapsedRealtimeNanos() - start;
+
+        Comparator<AppInfo> comparator = LauncherModel.getAppNameComparator();
+        ArrayList<AppInfo> sorted = null;
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sorted = new ArrayList<AppInfo>(apps);
+            Collections.sort(sorted, comparator);
+            for (AppInfo app : sorted) {
+                app.getBucketIndex();
+            }
+        }
+        long cachedNs = SystemClock.elapsedRealtimeNanos() - start;
+
+        Log.d(LOG_TAG, locale + ", " + NUM_APPS + " apps, " + ITERATIONS + " rebuilds: raw="
+                + rawNs / 1000 + "us cached=" + cachedNs / 1000 + "us");
+        assertEquals(rawSorted, sorted);
+        for (AppInfo app : apps) {
+            assertEquals(localeUtils.getBucketIndex(app.title.toString()), app.getBucketIndex());
+        }
+    }
+
+    private static void setLocale(Locale locale) {
+        Locale.setDefault(locale);
+        LocaleUtils.setLocale(locale);
+    }
+
+    private static String randomTitle(Random random, int[][] ranges) {
+        StringBuilder title = new StringBuilder();
+        int length = 2 + random.nextInt(8);
+        for (int c = 0; c < length; c++) {
+            int[] range = ranges[random.nextInt(ranges.length)];
+            title.append((char) (range[0] + random.nextInt(range[1] - range[0] + 1)));
+        }
+        return title.toString();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+
+import com.android.launcher3.compat.TestUsers;
+import com.android.launcher3.compat.UserHandleCompat;
+
+import android.test.ActivityInstrumentationTestCase2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Checks that {@link LauncherModel#mergePendingPackageUpdate} only merges package updates whose
+ * order does not matter, so the queued tasks have the same effect as running them one by one.
+ */
+public class PackageUpdateMergeTest extends ActivityInstrumentationTestCase2<Launcher> {
+
+    private static final int OP_ADD = LauncherModel.PackageUpdatedTask.OP_ADD;
+    private static final int OP_UPDATE = LauncherModel.PackageUpdatedTask.OP_UPDATE;
+    private static final int OP_REMOVE = LauncherModel.PackageUpdatedTask.OP_REMOVE;
+
+    private final ArrayList<LauncherModel.PackageUpdatedTask> mPending =
+            new ArrayList<LauncherModel.PackageUpdatedTask>();
+    private LauncherModel mModel;
+    private UserHandleCompat mOwner;
+
+    public PackageUpdateMergeTest() {
+        super(Launcher.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getActivity();
+        mModel = LauncherAppState.getInstance().getModel();
+        mOwner = UserHandleCompat.myUserHandle();
+    }
+
+    public void testSameOperationIsMerged() {
+        enqueue(OP_ADD, "a", mOwner);
+        enqueue(OP_ADD, "b", mOwner);
+        enqueue(OP_ADD, "a", mOwner);
+        assertEquals(1, mPending.size());
+        assertTask(0, OP_ADD, mOwner, "a", "b");
+    }
+
+    public void testAddRemoveAddKeepsItsOrder() {
+        enqueue(OP_ADD, "a", mOwner);
+        enqueue(OP_REMOVE, "a", mOwner);
+        enqueue(OP_ADD, "a", mOwner);
+        assertEquals(3, mPending.size());
+        assertTask(0, OP_ADD, mOwner, "a");
+        assertTask(1, OP_REMOVE, mOwner, "a");
+        assertTask(2, OP_ADD, mOwner, "a");
+    }
+
+    public void testUsersAreNotMerged() {
+        UserHandleCompat work = TestUsers.createUser(10);
+        enqueue(OP_ADD, "a", mOwner);
+        enqueue(OP_ADD, "a", work);
+        assertEquals(2, mPending.size());
+
+        // The removal of the work copy does not order the updates of the owner
+        enqueue(OP_REMOVE, "a", work);
+        enqueue(OP_ADD, "b", mOwner);
+        assertEquals(3, mPending.size());
+        assertTask(0, OP_ADD, mOwner, "a", "b");
+        assertTask(1, OP_ADD, work, "a");
+        assertTask(2, OP_REMOVE, work, "a");
+    }
+
+    public void testInterveningOperationOnTheSamePackage() {
+        enqueue(OP_ADD, "a", mOwner);
+        enqueue(OP_UPDATE, "b", mOwner);
+        enqueue(OP_ADD, "b", mOwner);
+        assertEquals(3, mPending.size());
+        assertTask(0, OP_ADD, mOwner, "a");
+        assertTask(1, OP_UPDATE, mOwner, "b");
+        assertTask(2, OP_ADD, mOwner, "b");
+
+        // Later updates are merged into the last task with the same operation
+        enqueue(OP_ADD, "c", mOwner);
+        assertEquals(3, mPending.size());
+        assertTask(2, OP_ADD, mOwner, "b", "c");
+    }
+
+    public void testInterveningOperationOnOtherPackages() {
+        enqueue(OP_ADD, "a", mOwner);
+        enqueue(OP_UPDATE, "b", mOwner);
+        enqueue(OP_ADD, "c", mOwner);
+        assertEquals(2, mPending.size());
+        assertTask(0, OP_ADD, mOwner, "a", "c");
+        assertTask(1, OP_UPDATE, mOwner, "b");
+    }
+
+    /**
+     * Queues the update the way {@link LauncherModel#enqueuePackageUpdated} does.
+     */
+    private void enqueue(int op, String packageName, UserHandleCompat user) {
+        LauncherModel.PackageUpdatedTask task =
+                mModel.new PackageUpdatedTask(op, new String[] { packageName }, user);
+        if (!LauncherModel.mergePendingPackageUpdate(mPending, task)) {
+            mPending.add(task);
+        }
+    }
+
+    private void assertTask(int index, int op, UserHandleCompat user, String... packages) {
+        LauncherModel.PackageUpdatedTask task = mPending.get(index);
+        assertEquals(op, task.mOp);
+        assertEquals(user, task.mUser);
+        assertEquals(Arrays.asList(packages), Arrays.asList(task.mPackages));
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+
+import android.test.ActivityInstrumentationTestCase2;
+
+import java.util.ArrayList;
+
+/**
+ * Checks that none of the hot queries of the launcher database scans a whole table.
+ */
+public class QueryPlanTest extends ActivityInstrumentationTestCase2<Launcher> {
+
+    public QueryPlanTest() {
+        super(Launcher.class);
+    }
+
+    public void testHotQueriesUseIndexes() {
+        getActivity();
+        ArrayList<String> fullScans = LauncherAppState.getLauncherProvider().findFullTableScans();
+        assertTrue("full table scans: " + fullScans, fullScans.isEmpty());
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Checks {@link LauncherModel#sortItemsSpatially} against a comparator sort, and measures both
+ * on NUM_ITEMS items.
+ */
+public class SpatialSortTest extends TestCase {
+
+    private static final int NUM_ITEMS = 2000;
+    private static final int NUM_SCREENS = 40;
+    private static final int COUNT_X = 5;
+    private static final int COUNT_Y = 5;
+    private static final int ITERATIONS = 20;
+    private static final String LOG_TAG = "SpatialSortTest";
+
+    private static final Comparator<ItemInfo> SPATIAL_ORDER = new Comparator<ItemInfo>() {
+        @Override
+        public int compare(ItemInfo lhs, ItemInfo rhs) {
+            int result = Long.compare(lhs.container, rhs.container);
+            if (result == 0) {
+                result = Long.compare(lhs.screenId, rhs.screenId);
+            }
+            if (result == 0) {
+                result = lhs.cellY - rhs.cellY;
+            }
+            if (result == 0) {
+                result = lhs.cellX - rhs.cellX;
+            }
+            return result;
+        }
+    };
+
+    public void testHotseatBeforeDesktop() {
+        ArrayList<ItemInfo> items = new ArrayList<ItemInfo>();
+        items.add(newItem(LauncherSettings.Favorites.CONTAINER_DESKTOP, 1, 1, 0));
+        items.add(newItem(LauncherSettings.Favorites.CONTAINER_DESKTOP, 0, 0, 1));
+        items.add(newItem(LauncherSettings.Favorites.CONTAINER_HOTSEAT, 2, 2, 0));
+        items.add(newItem(LauncherSettings.Favorites.CONTAINER_DESKTOP, 0, 1, 0));
+        items.add(newItem(LauncherSettings.Favorites.CONTAINER_HOTSEAT, 0, 0, 0));
+        ArrayList<ItemInfo> expected = new ArrayList<ItemInfo>(Arrays.asList(
+                items.get(4), items.get(2), items.get(3), items.get(1), items.get(0)));
+
+        LauncherModel.sortItemsSpatially(items);
+        assertEquals(expected, items);
+    }
+
+    public void testLargeScreenIds() {
+        long[] screenIds = { Long.MAX_VALUE, 1L << 40, Integer.MAX_VALUE + 1L, 3,
+                Long.MAX_VALUE / 2, Long.MIN_VALUE + 1, -5 };
+        ArrayList<ItemInfo> items = new ArrayList<ItemInfo>();
+        for (long screenId : screenIds) {
+            items.add(newItem(LauncherSettings.Favorites.CONTAINER_DESKTOP, screenId, 1, 1));
+            items.add(newItem(LauncherSettings.Favorites.CONTAINER_DESKTOP, screenId, 0, 0));
+            items.add(newItem(Long.MAX_VALUE, screenId, 0, 0));
+        }
+        checkSortedLikeComparator(items);
+    }
+
+    public void testKeepsOrderOfEqualItems() {
+        ArrayList<ItemInfo> items = new ArrayList<ItemInfo>();
+        for (int i = 0; i < 10; i++) {
+            items.add(newItem(LauncherSettings.Favorites.CONTAINER_DESKTOP, 7, 2, 3));
+        }
+        ArrayList<ItemInfo> expected = new ArrayList<ItemInfo>(items);
+        LauncherModel.sortItemsSpatially(items);
+        assertEquals(expected, items);
+    }
+
+    public void testRandomItems() {
+        checkSortedLikeComparator(createRandomItems(new Random(42)));
+    }
+
+    public void testSortBenchmark() {
+        ArrayList<ItemInfo> items = createRandomItems(new Random(7));
+        long bucketNs = Long.MAX_VALUE;
+        long comparatorNs = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            ArrayList<ItemInfo> copy = new ArrayList<ItemInfo>(items);
+            long start = SystemClock.elapsedRealtimeNanos();
+            LauncherModel.sortItemsSpatially(copy);
+            bucketNs = Math.min(bucketNs, SystemClock.elapsedRealtimeNanos() - start);
+
+            copy = new ArrayList<ItemInfo>(items);
+            start = SystemClock.elapsedRealtimeNanos();
+            Collections.sort(copy, SPATIAL_ORDER);
+            comparatorNs = Math.min(comparatorNs, SystemClock.elapsedRealtimeNanos() - start);
+        }
+        Log.d(LOG_TAG, NUM_ITEMS + " items: bucketed=" + bucketNs / 1000 + "us comparator="
+                + comparatorNs / 1000 + "us (best of " + ITERATIONS + ")");
+    }
+
+    private static void checkSortedLikeComparator(ArrayList<ItemInfo> items) {
+        ArrayList<ItemInfo> expected = new ArrayList<ItemInfo>(items);
+        Collections.sort(expected, SPATIAL_ORDER);
+        LauncherModel.sortItemsSpatially(items);
+        assertEquals(expected, items);
+    }
+
+    private static ArrayList<ItemInfo> createRandomItems(Random random) {
+        ArrayList<ItemInfo> items = new ArrayList<ItemInfo>(NUM_ITEMS);
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            if (random.nextInt(10) == 0) {
+                int rank = random.nextInt(COUNT_X);
+                items.add(newItem(LauncherSettings.Favorites.CONTAINER_HOTSEAT, rank, rank, 0));
+            } else {
+                items.add(newItem(LauncherSettings.Favorites.CONTAINER_DESKTOP,
+                        random.nextInt(NUM_SCREENS) * 1000000007L, random.nextInt(COUNT_X),
+                        random.nextInt(COUNT_Y)));
+            }
+        }
+        return items;
+    }
+
+    private static ItemInfo newItem(long container, long screenId, int cellX, int cellY) {
+        ItemInfo item = new ItemInfo();
+        item.container = container;
+        item.screenId = screenId;
+        item.cellX = cellX;
+        item.cellY = cellY;
+        return item;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+
+import com.android.launcher3.compat.UserHandleCompat;
+
+import android.content.ComponentName;
+
+import java.util.Random;
+
+/**
+ * Makes apps for the tests of the app drawer and the app search.
+ */
+public class TestApps {
+
+    /**
+     * Returns an app of the owner with the title, and a component made from "i".
+     */
+    public static AppInfo createApp(String title, int i) {
+        return createApp(title, new ComponentName("com.example.app" + i, "Activity"));
+    }
+
+    public static AppInfo createApp(String title, ComponentName componentName) {
+        return createApp(title, componentName, UserHandleCompat.myUserHandle());
+    }
+
+    public static AppInfo createApp(String title, ComponentName componentName,
+            UserHandleCompat user) {
+        AppInfo app = new AppInfo();
+        app.title = title;
+        app.contentDescription = title;
+        app.user = user;
+        app.componentName = componentName;
+        return app;
+    }
+
+    /**
+     * Returns a word of 3 to 12 lower case latin letters.
+     */
+    public static String randomTitle(Random random) {
+        StringBuilder title = new StringBuilder();
+        int length = 3 + random.nextInt(10);
+        for (int c = 0; c < length; c++) {
+            title.append((char) ('a' + random.nextInt(26)));
+        }
+        return title.toString();
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.compat;
+
+import android.os.Parcel;
+import android.os.UserHandle;
+
+/**
+ * Makes user handles for tests which need apps of several profiles.
+ */
+public class TestUsers {
+
+    /**
+     * Returns the handle of the user with the id, which does not need to exist.
+     */
+    public static UserHandleCompat createUser(int id) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeInt(id);
+            parcel.setDataPosition(0);
+            return UserHandleCompat.fromUser(new UserHandle(parcel));
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.stress;
+
+
+import com.android.launcher3.IconCache;
+import com.android.launcher3.Launcher;
+import com.android.launcher3.compat.LauncherActivityInfoCompat;
+import com.android.launcher3.compat.LauncherAppsCompat;
+import com.android.launcher3.compat.UserHandleCompat;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures icon lookup latency while other threads keep invalidating and re-rendering icons.
+ * Lookups of cached icons must not wait behind the rendering of unrelated icons, so they have to
+ * be faster than when every call is serialized on a single monitor, as the cache used to be.
+ */
+public class IconCacheContentionStressTest extends ActivityInstrumentationTestCase2<Launcher> {
+
+    private static final int NUM_READERS = 4;
+    private static final int LOOKUPS_PER_READER = 5000;
+    private static final String LOG_TAG = "IconCacheContentionStressTest";
+    private static final String ICON_DB = "app_icons_contention_test.db";
+
+    public IconCacheContentionStressTest() {
+        super(Launcher.class);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteIconDb(getActivity());
+        super.tearDown();
+    }
+
+    public void testLookupLatencyUnderContention() throws Exception {
+        final Context context = getActivity().getApplicationContext();
+        final List<LauncherActivityInfoCompat> apps = LauncherAppsCompat.getInstance(context)
+                .getActivityList(null, UserHandleCompat.myUserHandle());
+        assertTrue("no launchable activities", apps.size() > 1);
+
+        // Use a private cache and database, so that the launcher's own are left alone.
+        deleteIconDb(context);
+        final IconCache iconCache = new IconCache(context, ICON_DB);
+        for (LauncherActivityInfoCompat info : apps) {
+            iconCache.getIcon(info.getComponentName(), info, null);
+        }
+
+        long serializedP95 = measureLookups(iconCache, apps, new Object(), "single monitor");
+        long p95 = measureLookups(iconCache, apps, null, "concurrent");
+        assertTrue("p95 lookup latency " + p95 + "ns, " + serializedP95
+                + "ns on a single monitor", p95 < serializedP95);
+    }
+
+    /**
+     * Runs the readers against a renderer which keeps evicting and re-rendering the second half
+     * of the apps, logs the lookup latencies and returns their 95th percentile. If "monitor" is
+     * not null, every call to the cache holds it.
+     */
+    private long measureLookups(final IconCache iconCache,
+            final List<LauncherActivityInfoCompat> apps, final Object monitor, String name)
+            throws InterruptedException {
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final CountDownLatch finished = new CountDownLatch(NUM_READERS);
+        final long[][] latencies = new long[NUM_READERS][LOOKUPS_PER_READER];
+
+        Thread renderer = new Thread("icon-renderer") {
+            @Override
+            public void run() {
+                int renders = 0;
+                while (!done.get()) {
+                    for (int i = apps.size() / 2; i < apps.size() && !done.get(); i++) {
+                        render(iconCache, apps.get(i), monitor);
+                        renders++;
+                    }
+                }
+                Log.d(LOG_TAG, "rendered " + renders + " icons");
+            }
+        };
+
+        Thread[] readers = new Thread[NUM_READERS];
+        for (int r = 0; r < NUM_READERS; r++) {
+            final long[] samples = latencies[r];
+            readers[r] = new Thread("icon-reader-" + r) {
+                @Override
+                public void run() {
+                    for (int i = 0; i < LOOKUPS_PER_READER; i++) {
+                        LauncherActivityInfoCompat info = apps.get(i % apps.size());
+                        long start = System.nanoTime();
+                        lookup(iconCache, info, monitor);
+                        samples[i] = System.nanoTime() - start;
+                    }
+                    finished.countDown();
+                }
+            };
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        renderer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        finished.await();
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        done.set(true);
+        renderer.join();
+
+        long[] all = new long[NUM_READERS * LOOKUPS_PER_READER];
+        for (int r = 0; r < NUM_READERS; r++) {
+            System.arraycopy(latencies[r], 0, all, r * LOOKUPS_PER_READER, LOOKUPS_PER_READER);
+        }
+        Arrays.sort(all);
+        long p50 = all[all.length / 2];
+        long p95 = all[all.length * 95 / 100];
+        long p99 = all[all.length * 99 / 100];
+        Log.d(LOG_TAG, name + ": " + all.length + " lookups in " + elapsed + "ms ("
+                + (all.length * 1000L / Math.max(elapsed, 1)) + "/s), p50=" + p50 / 1000
+                + "us p95=" + p95 / 1000 + "us p99=" + p99 / 1000
+                + "us max=" + all[all.length - 1] / 1000 + "us");
+        return p95;
+    }
+
+    private static void lookup(IconCache iconCache, LauncherActivityInfoCompat info,
+            Object monitor) {
+        if (monitor == null) {
+            iconCache.getIcon(info.getComponentName(), info, null);
+        } else {
+            synchronized (monitor) {
+                iconCache.getIcon(info.getComponentName(), info, null);
+            }
+        }
+    }
+
+    private static void render(IconCache iconCache, LauncherActivityInfoCompat info,
+            Object monitor) {
+        if (monitor == null) {
+            iconCache.remove(info.getComponentName(), info.getUser());
+            iconCache.getIcon(info.getComponentName(), info, null);
+        } else {
+            synchronized (monitor) {
+                iconCache.remove(info.getComponentName(), info.getUser());
+                iconCache.getIcon(info.getComponentName(), info, null);
+            }
+        }
+    }
+
+    private static void deleteIconDb(Context context) {
+        SQLiteDatabase.deleteDatabase(new File(context.getCacheDir(), ICON_DB));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.stress;
+
+
+import com.android.launcher3.IconCache;
+import com.android.launcher3.Launcher;
+import com.android.launcher3.compat.LauncherActivityInfoCompat;
+import com.android.launcher3.compat.LauncherAppsCompat;
+import com.android.launcher3.compat.UserHandleCompat;
+
+import android.content.Context;
+import android.content.Intent;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Measures the throughput and the allocation rate of cached icon lookups, the way the
+ * workspace binds them for shortcuts. Lookups of cached icons must not allocate.
+ */
+public class IconCacheLookupBenchmark extends ActivityInstrumentationTestCase2<Launcher> {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 20;
+    private static final int LOOKUPS_PER_ITERATION = 10000;
+    private static final String LOG_TAG = "IconCacheLookupBenchmark";
+    private static final String ICON_DB = "app_icons_lookup_test.db";
+
+    public IconCacheLookupBenchmark() {
+        super(Launcher.class);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteIconDb(getActivity());
+        super.tearDown();
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testCachedLookups() throws Exception {
+        final Context context = getActivity().getApplicationContext();
+        final UserHandleCompat user = UserHandleCompat.myUserHandle();
+        List<LauncherActivityInfoCompat> apps = LauncherAppsCompat.getInstance(context)
+                .getActivityList(null, user);
+        assertTrue("no launchable activities", apps.size() > 0);
+
+        // Use a private cache and database, so that the launcher's own are left alone.
+        deleteIconDb(context);
+        IconCache iconCache = new IconCache(context, ICON_DB);
+        Intent[] intents = new Intent[apps.size()];
+        for (int i = 0; i < intents.length; i++) {
+            intents[i] = new Intent(Intent.ACTION_MAIN)
+                    .addCategory(Intent.CATEGORY_LAUNCHER)
+                    .setComponent(apps.get(i).getComponentName());
+            iconCache.getIcon(intents[i], user);
+        }
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runLookups(iconCache, intents, user);
+        }
+
+        long totalNs = 0;
+        long bestNs = Long.MAX_VALUE;
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            runLookups(iconCache, intents, user);
+            long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+            totalNs += elapsed;
+            bestNs = Math.min(bestNs, elapsed);
+        }
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        long lookups = (long) MEASURED_ITERATIONS * LOOKUPS_PER_ITERATION;
+        Log.d(LOG_TAG, lookups + " lookups: avg=" + (totalNs / lookups) + "ns/op best="
+                + (bestNs / LOOKUPS_PER_ITERATION) + "ns/op "
+                + (lookups * 1000000000L / Math.max(totalNs, 1)) + " ops/s, "
+                + allocations + " allocations (" + ((float) allocations / lookups) + "/op)");
+
+        assertTrue(allocations + " allocations for " + lookups + " lookups",
+                allocations < lookups / 100);
+    }
+
+    private static void runLookups(IconCache iconCache, Intent[] intents,
+            UserHandleCompat user) {
+        for (int i = 0; i < LOOKUPS_PER_ITERATION; i++) {
+            assertNotNull(iconCache.getIcon(intents[i % intents.length], user));
+        }
+    }
+
+    private static void deleteIconDb(Context context) {
+        SQLiteDatabase.deleteDatabase(new File(context.getCacheDir(), ICON_DB));
+    }
+}